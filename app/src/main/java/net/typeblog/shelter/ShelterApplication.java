@@ -8,6 +8,8 @@ import android.content.ServiceConnection;
 import net.typeblog.shelter.services.FileShuttleService;
 import net.typeblog.shelter.services.ShelterService;
 import net.typeblog.shelter.util.LocalStorageManager;
+import net.typeblog.shelter.util.PackageStateIndex;
+import net.typeblog.shelter.util.ProfileIntentResolver;
 import net.typeblog.shelter.util.SettingsManager;
 
 public class ShelterApplication extends Application {
@@ -19,6 +21,8 @@ public class ShelterApplication extends Application {
         super.onCreate();
         LocalStorageManager.initialize(this);
         SettingsManager.initialize(this);
+        PackageStateIndex.initialize(this);
+        ProfileIntentResolver.initialize(this);
     }
 
     public void bindShelterService(ServiceConnection conn, boolean foreground) {
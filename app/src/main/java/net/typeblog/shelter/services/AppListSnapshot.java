@@ -0,0 +1,127 @@
+package net.typeblog.shelter.services;
+
+import net.typeblog.shelter.util.ApplicationInfoWrapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// The authoritative list of apps as last delivered by ShelterService
+// Every change bumps a generation counter, so that clients holding
+// an older generation can ask for just the changes since then
+// instead of re-running the whole getApps() pipeline.
+class AppListSnapshot {
+    static class Delta {
+        final long generation;
+        final List<ApplicationInfoWrapper> changed;
+        final List<String> removed;
+
+        Delta(long generation, List<ApplicationInfoWrapper> changed, List<String> removed) {
+            this.generation = generation;
+            this.changed = changed;
+            this.removed = removed;
+        }
+    }
+
+    private static class Entry {
+        final ApplicationInfoWrapper app;
+        final long generation;
+
+        Entry(ApplicationInfoWrapper app, long generation) {
+            this.app = app;
+            this.generation = generation;
+        }
+    }
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    // Generation at which each package was removed from the list
+    private final Map<String, Long> mRemoved = new HashMap<>();
+    // Generation -> package, for the latest change of every package
+    // changed or removed after the base generation, so that since()
+    // only has to walk the changes it returns
+    private final TreeMap<Long, String> mChanges = new TreeMap<>();
+    // Clients may keep a generation across restarts of this service,
+    // so do not start from 0: generations of a new instance must never
+    // fall into the range of an old one
+    private long mGeneration = System.currentTimeMillis() * 1000;
+    // Generation at which the current full list was built
+    // Anything older than this cannot be answered with a delta
+    private long mBaseGeneration = -1;
+    private boolean mShowAll = false;
+
+    // Start building a new full list, dropping everything we knew
+    // Returns the base generation of the new list
+    synchronized long reset(boolean showAll) {
+        mEntries.clear();
+        mRemoved.clear();
+        mChanges.clear();
+        mShowAll = showAll;
+        mBaseGeneration = ++mGeneration;
+        return mBaseGeneration;
+    }
+
+    synchronized boolean isValid() {
+        return mBaseGeneration >= 0;
+    }
+
+    synchronized boolean getShowAll() {
+        return mShowAll;
+    }
+
+    // Record an app loaded as part of the full list started by reset()
+    // Changes that have been recorded after the reset always take precedence.
+    synchronized void putInitial(long baseGeneration, ApplicationInfoWrapper app) {
+        if (baseGeneration != mBaseGeneration) return;
+        String pkg = app.getPackageName();
+        Entry entry = mEntries.get(pkg);
+        if ((entry != null && entry.generation > baseGeneration) || mRemoved.containsKey(pkg)) return;
+        mEntries.put(pkg, new Entry(app, baseGeneration));
+    }
+
+    synchronized void update(ApplicationInfoWrapper app) {
+        if (!isValid()) return;
+        mGeneration++;
+        String pkg = app.getPackageName();
+        forgetChange(mEntries.put(pkg, new Entry(app, mGeneration)), mRemoved.remove(pkg));
+        mChanges.put(mGeneration, pkg);
+    }
+
+    synchronized void remove(String packageName) {
+        if (!isValid()) return;
+        mGeneration++;
+        forgetChange(mEntries.remove(packageName), mRemoved.put(packageName, mGeneration));
+        mChanges.put(mGeneration, packageName);
+    }
+
+    // Drop the previous change of a package that has just changed again
+    private void forgetChange(Entry oldEntry, Long oldRemoved) {
+        if (oldEntry != null) mChanges.remove(oldEntry.generation);
+        if (oldRemoved != null) mChanges.remove(oldRemoved);
+    }
+
+    synchronized ApplicationInfoWrapper get(String packageName) {
+        Entry entry = mEntries.get(packageName);
+        return entry == null ? null : entry.app;
+    }
+
+    // Returns null if the changes since the given generation are unknown
+    synchronized Delta since(long generation, boolean showAll) {
+        if (!isValid() || showAll != mShowAll || generation < mBaseGeneration || generation > mGeneration)
+            return null;
+
+        List<ApplicationInfoWrapper> changed = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (String pkg : mChanges.tailMap(generation, false).values()) {
+            Entry entry = mEntries.get(pkg);
+            if (entry != null) {
+                changed.add(entry.app);
+            } else {
+                removed.add(pkg);
+            }
+        }
+
+        return new Delta(mGeneration, changed, removed);
+    }
+}
@@ -22,6 +22,8 @@ import androidx.annotation.Nullable;
 import net.typeblog.shelter.R;
 import net.typeblog.shelter.ShelterApplication;
 import net.typeblog.shelter.util.CrossProfileDocumentsProvider;
+import net.typeblog.shelter.util.FileShuttleFiles;
+import net.typeblog.shelter.util.Tracer;
 import net.typeblog.shelter.util.Utility;
 
 import java.io.File;
@@ -30,7 +32,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -41,6 +42,20 @@ public class FileShuttleService extends Service {
     // This service does not need to persist.
     private Runnable mSuicideTask = this::suicide;
     private Handler mHandler = new Handler(Looper.getMainLooper());
+    private final FileShuttleFiles.MimeTypes mMimeTypes =
+            (extension) -> MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+    private static final FileShuttleFiles.DocumentContract DOCUMENT_CONTRACT =
+            new FileShuttleFiles.DocumentContract(
+                    DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+                    DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+                    DocumentsContract.Document.COLUMN_SIZE,
+                    DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+                    DocumentsContract.Document.COLUMN_MIME_TYPE,
+                    DocumentsContract.Document.COLUMN_FLAGS,
+                    DocumentsContract.Document.MIME_TYPE_DIR,
+                    DocumentsContract.Document.FLAG_SUPPORTS_THUMBNAIL,
+                    DocumentsContract.Document.FLAG_SUPPORTS_DELETE,
+                    DocumentsContract.Document.FLAG_DIR_SUPPORTS_CREATE);
     private IFileShuttleService.Stub mStub = new IFileShuttleService.Stub() {
         @Override
         public void ping() {
@@ -50,138 +65,124 @@ public class FileShuttleService extends Service {
 
         @Override
         public List<Map<String, Serializable>> loadFiles(String path) {
-            resetSuicideTask();
-            ArrayList<Map<String, Serializable>> ret = new ArrayList<>();
-            File f = new File(resolvePath(path));
-            if (f.listFiles() != null) {
-                for (File child : f.listFiles()) {
-                    ret.add(loadFileMeta(child.getPath()));
+            try (Tracer.Section ignored = Tracer.begin("FileShuttleService.loadFiles")) {
+                resetSuicideTask();
+                ArrayList<Map<String, Serializable>> ret = new ArrayList<>();
+                File[] children = new File(resolvePath(path)).listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        ret.add(loadFileMeta(child.getPath()));
+                    }
                 }
+                return ret;
             }
-            return ret;
         }
 
         @Override
         public Map<String, Serializable> loadFileMeta(String path) {
             resetSuicideTask();
             File f = new File(resolvePath(path));
-            HashMap<String, Serializable> map = new HashMap<>();
-            map.put(DocumentsContract.Document.COLUMN_DOCUMENT_ID, f.getAbsolutePath());
+            String displayName = f.getName();
             if (f.equals(Environment.getExternalStorageDirectory())) {
                 // Show "Shelter" as the name of the root directory
-                map.put(DocumentsContract.Document.COLUMN_DISPLAY_NAME, getString(R.string.app_name));
-            } else {
-                map.put(DocumentsContract.Document.COLUMN_DISPLAY_NAME, f.getName());
-            }
-            map.put(DocumentsContract.Document.COLUMN_SIZE, f.length());
-            map.put(DocumentsContract.Document.COLUMN_LAST_MODIFIED, f.lastModified());
-
-            if (f.isDirectory()) {
-                map.put(DocumentsContract.Document.COLUMN_MIME_TYPE, DocumentsContract.Document.MIME_TYPE_DIR);
-                map.put(DocumentsContract.Document.COLUMN_FLAGS,
-                        DocumentsContract.Document.FLAG_DIR_SUPPORTS_CREATE |
-                                DocumentsContract.Document.FLAG_SUPPORTS_DELETE);
-            } else {
-                String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(
-                        Utility.getFileExtension(f.getAbsolutePath()));
-                int flags = DocumentsContract.Document.FLAG_SUPPORTS_DELETE;
-                if (mime != null && (mime.startsWith("image/") || mime.startsWith("video/"))) {
-                    flags |= DocumentsContract.Document.FLAG_SUPPORTS_THUMBNAIL;
-                }
-                if (mime == null) {
-                    mime = "application/unknown";
-                }
-                map.put(DocumentsContract.Document.COLUMN_MIME_TYPE, mime);
-                map.put(DocumentsContract.Document.COLUMN_FLAGS, flags);
+                displayName = getString(R.string.app_name);
             }
-            return map;
+            return FileShuttleFiles.buildMeta(f, displayName, mMimeTypes, DOCUMENT_CONTRACT);
         }
 
         @Override
         public ParcelFileDescriptor openFile(String path, String mode) {
-            resetSuicideTask();
-            File f = new File(resolvePath(path));
-            int numericMode = ParcelFileDescriptor.parseMode(mode);
-
-            try {
-                if ((numericMode & ParcelFileDescriptor.MODE_WRITE_ONLY) != 0) {
-                    // When the file is opened in writable mode, and the file is of a media
-                    // type, we need to notify the media scanner of the update.
-                    // Even though this is done as part of file creation as well, that scan
-                    // might have failed because it happened before the writer was able to
-                    // finish writing.
-                    return ParcelFileDescriptor.open(f, numericMode, mHandler, (e) -> {
-                        String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(
-                                Utility.getFileExtension(f.getAbsolutePath()));
-                        notifyMediaScannerIfNecessary(f, mime);
-                    });
-                } else {
-                    return ParcelFileDescriptor.open(f, numericMode);
+            try (Tracer.Section ignored = Tracer.begin("FileShuttleService.openFile")) {
+                resetSuicideTask();
+                File f = new File(resolvePath(path));
+                int numericMode = ParcelFileDescriptor.parseMode(mode);
+
+                try {
+                    if ((numericMode & ParcelFileDescriptor.MODE_WRITE_ONLY) != 0) {
+                        // When the file is opened in writable mode, and the file is of a media
+                        // type, we need to notify the media scanner of the update.
+                        // Even though this is done as part of file creation as well, that scan
+                        // might have failed because it happened before the writer was able to
+                        // finish writing.
+                        return ParcelFileDescriptor.open(f, numericMode, mHandler, (e) -> {
+                            String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(
+                                    Utility.getFileExtension(f.getAbsolutePath()));
+                            notifyMediaScannerIfNecessary(f, mime);
+                        });
+                    } else {
+                        return ParcelFileDescriptor.open(f, numericMode);
+                    }
+                } catch (IOException e) {
+                    return null;
                 }
-            } catch (IOException e) {
-                return null;
             }
         }
 
         @Override
         public ParcelFileDescriptor openThumbnail(String path, Point sizeHint) {
-            resetSuicideTask();
-            String fullPath = resolvePath(path);
-            String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(
-                    Utility.getFileExtension(fullPath));
-            if (mime == null) {
-                return null;
-            }
-            if (mime.startsWith("image/")) {
-                // Image thumbnail
-                return loadImageThumbnail(fullPath, sizeHint);
-            } else if (mime.startsWith("video/")) {
-                // Video thumbnail
-                return loadVideoThumbnail(fullPath);
-            } else {
-                return null;
+            try (Tracer.Section ignored = Tracer.begin("FileShuttleService.openThumbnail")) {
+                resetSuicideTask();
+                String fullPath = resolvePath(path);
+                String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(
+                        Utility.getFileExtension(fullPath));
+                if (mime == null) {
+                    return null;
+                }
+                if (mime.startsWith("image/")) {
+                    // Image thumbnail
+                    return loadImageThumbnail(fullPath, sizeHint);
+                } else if (mime.startsWith("video/")) {
+                    // Video thumbnail
+                    return loadVideoThumbnail(fullPath);
+                } else {
+                    return null;
+                }
             }
         }
 
         @Override
         public String createFile(String path, String mimeType, String displayName) {
-            resetSuicideTask();
-            File f;
-            String fullPath = path + "/" + displayName;
-            boolean isDirectory =
-                    DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType);
-            boolean shouldAppendExtension =
-                    mimeType != null && !isDirectory && !mimeType.equals("application/octet-stream");
-
-            // Append extension for files if a MIME type is specified
-            if (shouldAppendExtension) {
-                String extensionPart = "." + MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType);
-                if (!fullPath.endsWith(extensionPart)) {
-                    fullPath += extensionPart;
+            try (Tracer.Section ignored = Tracer.begin("FileShuttleService.createFile")) {
+                resetSuicideTask();
+                File f;
+                String fullPath = path + "/" + displayName;
+                boolean isDirectory =
+                        DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType);
+                boolean shouldAppendExtension =
+                        mimeType != null && !isDirectory && !mimeType.equals("application/octet-stream");
+
+                // Append extension for files if a MIME type is specified
+                if (shouldAppendExtension) {
+                    String extensionPart = "." + MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType);
+                    if (!fullPath.endsWith(extensionPart)) {
+                        fullPath += extensionPart;
+                    }
                 }
-            }
 
-            // Now we can create the file / directory
-            f = new File(resolvePath(fullPath));
-            try {
-                if ((isDirectory && !f.mkdir()) || (!isDirectory && !f.createNewFile())) {
+                // Now we can create the file / directory
+                f = new File(resolvePath(fullPath));
+                try {
+                    if ((isDirectory && !f.mkdir()) || (!isDirectory && !f.createNewFile())) {
+                        return null;
+                    }
+                } catch (IOException e) {
                     return null;
                 }
-            } catch (IOException e) {
-                return null;
-            }
 
-            notifyMediaScannerIfNecessary(f, mimeType);
+                notifyMediaScannerIfNecessary(f, mimeType);
 
-            return f.getAbsolutePath();
+                return f.getAbsolutePath();
+            }
         }
 
         @Override
         public String deleteFile(String path) {
-            resetSuicideTask();
-            File f = new File(resolvePath(path));
-            f.delete();
-            return f.getParentFile().getAbsolutePath();
+            try (Tracer.Section ignored = Tracer.begin("FileShuttleService.deleteFile")) {
+                resetSuicideTask();
+                File f = new File(resolvePath(path));
+                f.delete();
+                return f.getParentFile().getAbsolutePath();
+            }
         }
 
         @Override
@@ -212,12 +213,8 @@ public class FileShuttleService extends Service {
     }
 
     private String resolvePath(String path) {
-        if (path.startsWith(CrossProfileDocumentsProvider.DUMMY_ROOT)) {
-            return path.replaceFirst(CrossProfileDocumentsProvider.DUMMY_ROOT,
-                    Environment.getExternalStorageDirectory().getAbsolutePath());
-        } else {
-            return path;
-        }
+        return FileShuttleFiles.resolvePath(path, CrossProfileDocumentsProvider.DUMMY_ROOT,
+                Environment.getExternalStorageDirectory().getAbsolutePath());
     }
 
     private void resetSuicideTask() {
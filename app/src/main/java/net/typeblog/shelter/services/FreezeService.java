@@ -4,11 +4,9 @@ import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
-import android.app.admin.DevicePolicyManager;
 import android.app.usage.UsageStats;
 import android.app.usage.UsageStatsManager;
 import android.content.BroadcastReceiver;
-import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -17,9 +15,10 @@ import android.os.IBinder;
 import androidx.annotation.Nullable;
 
 import net.typeblog.shelter.R;
-import net.typeblog.shelter.receivers.ShelterDeviceAdminReceiver;
 import net.typeblog.shelter.ui.DummyActivity;
+import net.typeblog.shelter.util.PackageStateIndex;
 import net.typeblog.shelter.util.SettingsManager;
+import net.typeblog.shelter.util.Tracer;
 import net.typeblog.shelter.util.Utility;
 
 import java.util.ArrayList;
@@ -99,32 +98,37 @@ public class FreezeService extends Service {
     // Delayed work
     private AlarmManager mAlarmManager;
 
-    private AlarmManager.OnAlarmListener mFreezeWork = () -> {
-        synchronized (FreezeService.class) {
-            // Cancel the unlock receiver first - the delay has passed if this work is executed
-            unregisterReceiver(mUnlockReceiver);
-
-            if (sAppToFreeze.size() > 0) {
-                DevicePolicyManager dpm = getSystemService(DevicePolicyManager.class);
-                ComponentName adminComponent = new ComponentName(FreezeService.this, ShelterDeviceAdminReceiver.class);
-                for (String app : sAppToFreeze) {
-                    boolean shouldFreeze = true;
-                    UsageStats stats =  mUsageStats.get(app);
-                    if (stats != null && mScreenLockTime - stats.getLastTimeUsed() <= APP_INACTIVE_TIMEOUT &&
-                            stats.getTotalTimeInForeground() >= APP_INACTIVE_TIMEOUT) {
-                        // Don't freeze foreground apps if requested
-                        shouldFreeze = false;
-                    }
+    private AlarmManager.OnAlarmListener mFreezeWork = this::freezePendingApps;
 
-                    if (shouldFreeze) {
-                        dpm.setApplicationHidden(adminComponent, app, true);
+    // Runs once the delay after locking the screen has passed.
+    // Package-private so that the load tests can run it without waiting for the alarm.
+    void freezePendingApps() {
+        synchronized (FreezeService.class) {
+            try (Tracer.Section ignored = Tracer.begin("FreezeService.freeze")) {
+                // Cancel the unlock receiver first - the delay has passed if this work is executed
+                unregisterReceiver(mUnlockReceiver);
+
+                if (sAppToFreeze.size() > 0) {
+                    PackageStateIndex packageStates = PackageStateIndex.getInstance();
+                    for (String app : sAppToFreeze) {
+                        boolean shouldFreeze = true;
+                        UsageStats stats =  mUsageStats.get(app);
+                        if (stats != null && mScreenLockTime - stats.getLastTimeUsed() <= APP_INACTIVE_TIMEOUT &&
+                                stats.getTotalTimeInForeground() >= APP_INACTIVE_TIMEOUT) {
+                            // Don't freeze foreground apps if requested
+                            shouldFreeze = false;
+                        }
+
+                        if (shouldFreeze) {
+                            packageStates.setHidden(app, true);
+                        }
                     }
+                    sAppToFreeze.clear();
                 }
-                sAppToFreeze.clear();
+                stopSelf();
             }
-            stopSelf();
         }
-    };
+    }
 
     @Override
     public void onCreate() {
@@ -0,0 +1,144 @@
+package net.typeblog.shelter.services;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A fixed pool of workers for the binder calls of ShelterService that
+// need to run in the background, replacing one new Thread per call.
+// Tasks are picked by priority first (lower value first), then in the
+// order they were scheduled. Tasks can be cancelled while still queued.
+// An exception thrown by a task is rethrown on its worker (see Task.done()).
+class ServiceScheduler {
+    static final int PRIORITY_CONTROL = 0;
+    static final int PRIORITY_LIST = 1;
+    static final int PRIORITY_ICON = 2;
+    private static final String[] PRIORITY_NAMES = new String[]{"control", "list", "icon"};
+
+    private static final int WORKERS = 4;
+
+    class Task extends FutureTask<Void> implements Comparable<Task> {
+        private final int mPriority;
+        private final long mSequence = mNextSequence.getAndIncrement();
+        private final long mScheduledAt = System.nanoTime();
+
+        Task(int priority, Runnable runnable) {
+            super(runnable, null);
+            mPriority = priority;
+        }
+
+        @Override
+        public void run() {
+            if (isCancelled()) {
+                mStats[mPriority].recordCancelled();
+                return;
+            }
+
+            long startedAt = System.nanoTime();
+            super.run();
+            mStats[mPriority].record(startedAt - mScheduledAt, System.nanoTime() - startedAt);
+        }
+
+        // A task that throws fails as loudly as the thread of its own it used
+        // to run on would have, instead of leaving the client waiting for a
+        // callback that never comes
+        @Override
+        protected void done() {
+            if (isCancelled()) return;
+            try {
+                get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new RuntimeException(cause);
+            } catch (InterruptedException e) {
+                // Cannot happen, we are done already
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (mPriority != other.mPriority) {
+                return Integer.compare(mPriority, other.mPriority);
+            } else {
+                return Long.compare(mSequence, other.mSequence);
+            }
+        }
+    }
+
+    private static class Stats {
+        private long mCount = 0;
+        private long mCancelled = 0;
+        private long mTotalWait = 0;
+        private long mMaxWait = 0;
+        private long mTotalRun = 0;
+        private long mMaxRun = 0;
+
+        synchronized void record(long wait, long run) {
+            mCount++;
+            mTotalWait += wait;
+            mMaxWait = Math.max(mMaxWait, wait);
+            mTotalRun += run;
+            mMaxRun = Math.max(mMaxRun, run);
+        }
+
+        synchronized void recordCancelled() {
+            mCancelled++;
+        }
+
+        synchronized void dump(PrintWriter writer, String name) {
+            writer.printf("  %s: ran %d, cancelled %d, wait avg %.2fms max %.2fms, run avg %.2fms max %.2fms%n",
+                    name, mCount, mCancelled,
+                    mCount == 0 ? 0.0 : mTotalWait / (double) mCount / 1e6, mMaxWait / 1e6,
+                    mCount == 0 ? 0.0 : mTotalRun / (double) mCount / 1e6, mMaxRun / 1e6);
+        }
+    }
+
+    private final AtomicLong mNextSequence = new AtomicLong();
+    private final Stats[] mStats = new Stats[PRIORITY_NAMES.length];
+    private final ThreadPoolExecutor mExecutor;
+
+    ServiceScheduler() {
+        for (int i = 0; i < mStats.length; i++) {
+            mStats[i] = new Stats();
+        }
+
+        AtomicInteger threadId = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(WORKERS, WORKERS, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(),
+                (r) -> new Thread(r, "ShelterService-worker-" + threadId.incrementAndGet()));
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Create a task without running it yet, so that the caller can
+    // keep track of it (e.g. for cancellation) before it could possibly finish
+    Task newTask(int priority, Runnable runnable) {
+        return new Task(priority, runnable);
+    }
+
+    void execute(Task task) {
+        mExecutor.execute(task);
+    }
+
+    Task schedule(int priority, Runnable runnable) {
+        Task task = newTask(priority, runnable);
+        execute(task);
+        return task;
+    }
+
+    void dump(PrintWriter writer) {
+        writer.println("ServiceScheduler:");
+        writer.printf("  queued %d, active %d, workers %d%n",
+                mExecutor.getQueue().size(), mExecutor.getActiveCount(), mExecutor.getPoolSize());
+        for (int i = 0; i < mStats.length; i++) {
+            mStats[i].dump(writer, PRIORITY_NAMES[i]);
+        }
+    }
+}
@@ -1,18 +1,25 @@
 package net.typeblog.shelter.services;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.Service;
 import android.app.admin.DevicePolicyManager;
 import android.content.ComponentName;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
 
 import androidx.annotation.Nullable;
 
@@ -20,20 +27,62 @@ import net.typeblog.shelter.R;
 import net.typeblog.shelter.ShelterApplication;
 import net.typeblog.shelter.receivers.ShelterDeviceAdminReceiver;
 import net.typeblog.shelter.ui.DummyActivity;
+import net.typeblog.shelter.util.AppListPipeline;
 import net.typeblog.shelter.util.ApplicationInfoWrapper;
 import net.typeblog.shelter.util.FileProviderProxy;
+import net.typeblog.shelter.util.IconAtlas;
+import net.typeblog.shelter.util.IconDiskCache;
+import net.typeblog.shelter.util.IconRenderer;
+import net.typeblog.shelter.util.LabelCache;
+import net.typeblog.shelter.util.PackageStateIndex;
+import net.typeblog.shelter.util.ProfileCommand;
+import net.typeblog.shelter.util.Tracer;
 import net.typeblog.shelter.util.UriForwardProxy;
 import net.typeblog.shelter.util.Utility;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ShelterService extends Service {
     public static final int RESULT_CANNOT_INSTALL_SYSTEM_APP = 100001;
 
+    // Operations for runBatch
+    public static final int BATCH_FREEZE = 1;
+    public static final int BATCH_UNFREEZE = 2;
+    // Clone into the profile of this service
+    public static final int BATCH_INSTALL = 3;
+    public static final int BATCH_UNINSTALL = 4;
+
     private static final int NOTIFICATION_ID = 0x49a11;
+    // Page sizes used by getAppsPaged
+    // The first page only needs to fill the screen
+    private static final int APPS_FIRST_PAGE_SIZE = 20;
+    private static final int APPS_PAGE_SIZE = 100;
+    // The order of the pages of getAppsPaged, before all the labels are loaded
+    private static final Comparator<ApplicationInfoWrapper> PAGE_ORDER = (x, y) -> {
+        if (x.isHidden() != y.isHidden()) {
+            return x.isHidden() ? 1 : -1;
+        } else if ((x.getLabel() == null) != (y.getLabel() == null)) {
+            return x.getLabel() == null ? 1 : -1;
+        } else if (x.getLabel() == null) {
+            return x.getPackageName().compareTo(y.getPackageName());
+        } else {
+            return x.getLabel().compareTo(y.getLabel());
+        }
+    };
+    // How long to wait for the user to confirm one installation / uninstallation in a batch
+    private static final long BATCH_ITEM_TIMEOUT_MINUTES = 5;
+    // Upper bound of bitmap bytes sent in one loadIcons callback
+    private static final int ICON_BATCH_MAX_BYTES = 256 * 1024;
+    private static final int PM_FLAGS = PackageManager.MATCH_DISABLED_COMPONENTS | PackageManager.MATCH_UNINSTALLED_PACKAGES;
     private DevicePolicyManager mPolicyManager = null;
     private boolean mIsProfileOwner = false;
     private PackageManager mPackageManager = null;
@@ -48,6 +97,23 @@ public class ShelterService extends Service {
     // Note that this proxy can only start activity that is accessible to the
     // main profile and within the application itself.
     private IStartActivityProxy mStartActivityProxy = null;
+    // The list of apps last delivered through getAppsPaged, kept up to date
+    // by package broadcasts and by our own freeze / unfreeze / install paths
+    private final AppListSnapshot mSnapshot = new AppListSnapshot();
+    // Workers for everything that should not block the binder thread
+    private final ServiceScheduler mScheduler = new ServiceScheduler();
+    // For timeouts; nothing else runs here
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Icon batches that have not started yet, keyed by their callback
+    // so that the client can cancel them (see cancelLoadIcons)
+    private final Map<IBinder, ServiceScheduler.Task> mIconTasks = new ConcurrentHashMap<>();
+    private LabelCache mLabelCache = null;
+    private IconDiskCache mIconCache = null;
+    private PackageStateIndex mPackageStates = null;
+    // Changes made by the service itself are not notified (see setHidden()),
+    // as it refreshes those packages right away, before the call returns
+    private PackageStateIndex.Listener mPackageListener =
+            (packageName) -> mScheduler.schedule(ServiceScheduler.PRIORITY_LIST, () -> refreshPackage(packageName));
     private IShelterService.Stub mBinder = new IShelterService.Stub() {
         @Override
         public void ping() {
@@ -57,7 +123,7 @@ public class ShelterService extends Service {
         @Override
         public void stopShelterService(boolean kill) {
             // dirty: just wait for some time and kill this service itself
-            new Thread(() -> {
+            mScheduler.schedule(ServiceScheduler.PRIORITY_CONTROL, () -> {
                 try {
                     Thread.sleep(1);
                 } catch (Exception e) {
@@ -70,58 +136,211 @@ public class ShelterService extends Service {
                     // Just kill the entire process if this signal is received and the process has nothing to do
                     System.exit(0);
                 }
-            }).start();
+            });
         }
 
         @Override
         public void getApps(IGetAppsCallback callback, boolean showAll) {
-            new Thread(() -> {
-                int pmFlags = PackageManager.MATCH_DISABLED_COMPONENTS | PackageManager.MATCH_UNINSTALLED_PACKAGES;
-                List<ApplicationInfoWrapper> list = mPackageManager.getInstalledApplications(pmFlags)
-                        .stream()
-                        .filter((it) -> !it.packageName.equals(getPackageName()))
-                        .filter((it) -> {
-                            boolean isSystem = (it.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
-                            boolean isHidden = isHidden(it.packageName);
-                            boolean isInstalled = (it.flags & ApplicationInfo.FLAG_INSTALLED) != 0;
-                            boolean canLaunch = mPackageManager.getLaunchIntentForPackage(it.packageName) != null;
-
-                            return showAll || (!isSystem && isInstalled) || isHidden || canLaunch;
-                        })
-                        .map(ApplicationInfoWrapper::new)
-                        .map((it) -> it.loadLabel(mPackageManager)
-                                .setHidden(isHidden(it.getPackageName())))
-                        .sorted((x, y) -> {
-                            // Sort hidden apps at the last
-                            if (x.isHidden() && !y.isHidden()) {
-                                return 1;
-                            } else if (!x.isHidden() && y.isHidden()) {
-                                return -1;
-                            } else {
-                                return x.getLabel().compareTo(y.getLabel());
-                            }
-                        })
-                        .collect(Collectors.toList());
+            mScheduler.schedule(ServiceScheduler.PRIORITY_LIST, () -> {
+                try (Tracer.Section ignored = Tracer.begin("ShelterService.getApps")) {
+                    List<ApplicationInfoWrapper> list = AppListPipeline.build(
+                            mPackageManager.getInstalledPackages(PM_FLAGS),
+                            (info) -> shouldShow(info, showAll), ShelterService.this::wrap,
+                            mLabelCache::loadLabels);
+                    mLabelCache.save();
+
+                    try {
+                        callback.callback(list);
+                    } catch (RemoteException e) {
+                        // Do Nothing
+                    }
+                }
+            });
+        }
 
+        @Override
+        public void getAppsPaged(IGetAppsPagedCallback callback, boolean showAll) {
+            mScheduler.schedule(ServiceScheduler.PRIORITY_LIST, () -> {
+                try (Tracer.Section ignored = Tracer.begin("ShelterService.getAppsPaged")) {
+                    List<ApplicationInfoWrapper> apps = queryApps(showAll);
+                    long generation = mSnapshot.reset(showAll);
+
+                    // Order by the labels we have cached before cutting the pages, so
+                    // that the first page is the top of the list as far as we can tell
+                    // without loading anything (all of it once the cache is warm).
+                    // Apps without a cached label come last, by package name.
+                    mLabelCache.loadCachedLabels(apps);
+                    apps.sort(PAGE_ORDER);
+
+                    // Loading labels is the expensive part, so do it page by page
+                    // and ship every page as soon as it is ready. The first page
+                    // is kept small so that the list can show something right away;
+                    // later pages are bounded to stay well below the binder limit.
+                    int start = 0;
+                    int pageSize = APPS_FIRST_PAGE_SIZE;
+                    do {
+                        int end = Math.min(start + pageSize, apps.size());
+                        List<ApplicationInfoWrapper> page = new ArrayList<>(apps.subList(start, end));
+                        mLabelCache.loadLabels(page);
+                        page.sort(ApplicationInfoWrapper.DISPLAY_ORDER);
+                        for (ApplicationInfoWrapper app : page) {
+                            mSnapshot.putInitial(generation, app);
+                        }
+
+                        try {
+                            callback.callback(generation, page, end == apps.size());
+                        } catch (RemoteException e) {
+                            // The other side is gone, no need to continue
+                            return;
+                        }
+
+                        start = end;
+                        pageSize = APPS_PAGE_SIZE;
+                    } while (start < apps.size());
+
+                    mLabelCache.save();
+                }
+            });
+        }
+
+        @Override
+        public void getAppsSince(long generation, boolean showAll, IGetAppsDeltaCallback callback) {
+            try (Tracer.Section ignored = Tracer.begin("ShelterService.getAppsSince")) {
+                AppListSnapshot.Delta delta = mSnapshot.since(generation, showAll);
                 try {
-                    callback.callback(list);
+                    if (delta == null) {
+                        callback.outdated();
+                    } else {
+                        callback.callback(delta.generation, delta.changed, delta.removed);
+                    }
                 } catch (RemoteException e) {
                     // Do Nothing
                 }
-            }).start();
+            }
         }
 
         @Override
-        public void loadIcon(ApplicationInfoWrapper info, ILoadIconCallback callback) {
-            new Thread(() -> {
-                Bitmap icon = Utility.drawableToBitmap(info.getInfo().loadUnbadgedIcon(mPackageManager));
+        public void loadIcon(ApplicationInfoWrapper info, int sizePx, ILoadIconCallback callback) {
+            mScheduler.schedule(ServiceScheduler.PRIORITY_ICON, () -> {
+                try (Tracer.Section ignored = Tracer.begin("ShelterService.loadIcon")) {
+                    // The caller may be in this process (the service of the main profile)
+                    // and keep the bitmap, so it cannot be the scratch bitmap of the renderer
+                    Drawable drawable = info.getInfo().loadUnbadgedIcon(mPackageManager);
+                    Bitmap icon = sizePx > 0 ?
+                            IconRenderer.get().copy(IconRenderer.get().render(drawable, sizePx))
+                            : Utility.drawableToBitmap(drawable);
+
+                    try {
+                        callback.callback(icon);
+                    } catch (RemoteException e) {
+                        // Do Nothing
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void loadIcons(List<String> packages, int sizePx, ILoadIconsCallback callback) {
+            IBinder key = callback.asBinder();
+            ServiceScheduler.Task task = mScheduler.newTask(ServiceScheduler.PRIORITY_ICON, () -> {
+                try (Tracer.Section ignored = Tracer.begin("ShelterService.loadIcons")) {
+                    mIconTasks.remove(key);
+
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1
+                            && loadIconsShared(packages, sizePx, callback)) {
+                        return;
+                    }
+
+                    // Send as many icons as we can in each transaction
+                    // while staying well below the binder buffer limit
+                    List<String> batchPackages = new ArrayList<>();
+                    List<Bitmap> batchIcons = new ArrayList<>();
+                    int batchBytes = 0;
+                    for (String pkg : packages) {
+                        Bitmap icon = loadIconCached(pkg, sizePx);
+                        if (icon == null) continue;
+
+                        if (!batchIcons.isEmpty() && batchBytes + icon.getByteCount() > ICON_BATCH_MAX_BYTES) {
+                            try {
+                                callback.callback(batchPackages, batchIcons, false);
+                            } catch (RemoteException e) {
+                                // The other side is gone, no need to continue
+                                return;
+                            }
+                            batchPackages = new ArrayList<>();
+                            batchIcons = new ArrayList<>();
+                            batchBytes = 0;
+                        }
+
+                        batchPackages.add(pkg);
+                        // Kept until the batch is sent, so it cannot be the renderer's scratch bitmap
+                        batchIcons.add(IconRenderer.get().copy(icon));
+                        batchBytes += icon.getByteCount();
+                    }
+
+                    try {
+                        callback.callback(batchPackages, batchIcons, true);
+                    } catch (RemoteException e) {
+                        // Do Nothing
+                    }
+                }
+            });
+            mIconTasks.put(key, task);
+            mScheduler.execute(task);
+        }
 
+        // Batches that have started already are left to finish
+        @Override
+        public void cancelLoadIcons(List<IBinder> callbacks) {
+            for (IBinder key : callbacks) {
+                ServiceScheduler.Task task = mIconTasks.remove(key);
+                if (task != null) {
+                    task.cancel(false);
+                }
+            }
+        }
+
+        // Render the whole batch into one shared memory atlas, so that only
+        // a file descriptor and the package names go through the binder.
+        // Returns false if no atlas could be allocated, before loading anything.
+        @TargetApi(Build.VERSION_CODES.O_MR1)
+        private boolean loadIconsShared(List<String> packages, int sizePx, ILoadIconsCallback callback) {
+            if (packages.isEmpty()) return false;
+
+            IconAtlas.Writer writer;
+            try {
+                writer = new IconAtlas.Writer(packages.size(), sizePx);
+            } catch (ErrnoException e) {
+                return false;
+            }
+
+            List<String> loadedPackages = new ArrayList<>();
+            for (String pkg : packages) {
+                Bitmap icon = loadIconCached(pkg, sizePx);
+                if (icon == null) continue;
+                writer.add(icon);
+                loadedPackages.add(pkg);
+            }
+
+            try {
+                if (writer.getCount() == 0) {
+                    writer.abort();
+                    callback.callback(loadedPackages, new ArrayList<>(), true);
+                    return true;
+                }
+
+                Bundle atlas = new Bundle();
+                SharedMemory mem = writer.finish(atlas);
                 try {
-                    callback.callback(icon);
-                } catch (RemoteException e) {
-                    // Do Nothing
+                    callback.callbackShared(atlas, loadedPackages, sizePx, true);
+                } finally {
+                    // The other side holds its own duplicate of the descriptor by now
+                    mem.close();
                 }
-            }).start();
+            } catch (RemoteException e) {
+                // Do Nothing
+            }
+            return true;
         }
 
         @Override
@@ -139,7 +358,8 @@ public class ShelterService extends Service {
 
                 // Send the callback to the DummyActivity
                 Bundle callbackExtra = new Bundle();
-                callbackExtra.putBinder("callback", callback.asBinder());
+                callbackExtra.putBinder("callback",
+                        refreshingCallback(app.getPackageName(), callback).asBinder());
                 intent.putExtra("callback", callbackExtra);
                 intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                 DummyActivity.registerSameProcessRequest(intent);
@@ -151,11 +371,11 @@ public class ShelterService extends Service {
                     mPolicyManager.enableSystemApp(
                             mAdminComponent,
                             app.getPackageName());
+                    mPackageStates.invalidate(app.getPackageName(), false);
 
                     // Also set the hidden state to false.
-                    mPolicyManager.setApplicationHidden(
-                            mAdminComponent,
-                            app.getPackageName(), false);
+                    mPackageStates.setHidden(app.getPackageName(), false, false);
+                    refreshPackage(app.getPackageName());
 
                     callback.callback(Activity.RESULT_OK);
                 } else {
@@ -196,7 +416,8 @@ public class ShelterService extends Service {
 
                 // Send the callback to the DummyActivity
                 Bundle callbackExtra = new Bundle();
-                callbackExtra.putBinder("callback", callback.asBinder());
+                callbackExtra.putBinder("callback",
+                        refreshingCallback(app.getPackageName(), callback).asBinder());
                 intent.putExtra("callback", callbackExtra);
                 intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                 DummyActivity.registerSameProcessRequest(intent);
@@ -207,9 +428,8 @@ public class ShelterService extends Service {
                 if (mIsProfileOwner) {
                     // This is essentially the same as disabling the system app
                     // There is no way to reverse the "enableSystemApp" operation here
-                    mPolicyManager.setApplicationHidden(
-                            mAdminComponent,
-                            app.getPackageName(), true);
+                    mPackageStates.setHidden(app.getPackageName(), true, false);
+                    refreshPackage(app.getPackageName());
                     callback.callback(Activity.RESULT_OK);
                 } else {
                     callback.callback(RESULT_CANNOT_INSTALL_SYSTEM_APP);
@@ -222,9 +442,8 @@ public class ShelterService extends Service {
             if (!mIsProfileOwner)
                 throw new IllegalArgumentException("Cannot freeze app without being profile owner");
 
-            mPolicyManager.setApplicationHidden(
-                    mAdminComponent,
-                    app.getPackageName(), true);
+            mPackageStates.setHidden(app.getPackageName(), true, false);
+            refreshPackage(app.getPackageName());
         }
 
         @Override
@@ -232,9 +451,14 @@ public class ShelterService extends Service {
             if (!mIsProfileOwner)
                 throw new IllegalArgumentException("Cannot unfreeze app without being profile owner");
 
-            mPolicyManager.setApplicationHidden(
-                    mAdminComponent,
-                    app.getPackageName(), false);
+            mPackageStates.setHidden(app.getPackageName(), false, false);
+            refreshPackage(app.getPackageName());
+        }
+
+        @Override
+        public void runBatch(int operation, List<ApplicationInfoWrapper> apps, IBatchCallback callback) {
+            mScheduler.schedule(ServiceScheduler.PRIORITY_CONTROL,
+                    new BatchRun(operation, apps, callback)::next);
         }
 
         @Override
@@ -252,6 +476,37 @@ public class ShelterService extends Service {
             return Utility.checkAllFileAccessPermission();
         }
 
+        @Override
+        public String dumpTraces() {
+            return Tracer.dump();
+        }
+
+        @Override
+        public boolean runCommand(ProfileCommand command, IRunCommandCallback callback) {
+            if (!mIsProfileOwner || command.needsActivity(ShelterService.this)) return false;
+
+            // Do not keep the caller (often on its main thread) waiting
+            mScheduler.schedule(ServiceScheduler.PRIORITY_CONTROL, () -> {
+                boolean done;
+                try {
+                    done = command.execute(ShelterService.this);
+                } catch (IllegalStateException e) {
+                    // e.g. FreezeService cannot be started from the background right now;
+                    // everything done so far is safe to be repeated by DummyActivity
+                    done = false;
+                }
+
+                if (callback != null) {
+                    try {
+                        callback.callback(done);
+                    } catch (RemoteException e) {
+                        // Do Nothing
+                    }
+                }
+            });
+            return true;
+        }
+
         @Override
         public List<String> getCrossProfileWidgetProviders() {
             if (!mIsProfileOwner)
@@ -300,6 +555,18 @@ public class ShelterService extends Service {
         mPackageManager = getPackageManager();
         mIsProfileOwner = mPolicyManager.isProfileOwnerApp(getPackageName());
         mAdminComponent = new ComponentName(getApplicationContext(), ShelterDeviceAdminReceiver.class);
+        mLabelCache = new LabelCache(this);
+        mIconCache = new IconDiskCache(this);
+        mPackageStates = PackageStateIndex.getInstance();
+        // Keep the snapshot current with package broadcasts and
+        // freeze / unfreeze from anywhere in this process
+        mPackageStates.addListener(mPackageListener);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mPackageStates.removeListener(mPackageListener);
     }
 
     @Nullable
@@ -321,8 +588,215 @@ public class ShelterService extends Service {
         return false;
     }
 
+    // Query the list of apps to show, without labels (those are expensive to load)
+    private List<ApplicationInfoWrapper> queryApps(boolean showAll) {
+        // Use PackageInfo instead of ApplicationInfo for lastUpdateTime
+        return AppListPipeline.filter(mPackageManager.getInstalledPackages(PM_FLAGS),
+                (info) -> shouldShow(info, showAll), this::wrap);
+    }
+
+    private ApplicationInfoWrapper wrap(PackageInfo info) {
+        return new ApplicationInfoWrapper(info).setHidden(isHidden(info.packageName));
+    }
+
+    private boolean shouldShow(PackageInfo info, boolean showAll) {
+        return info.applicationInfo != null && shouldShow(info.applicationInfo, showAll);
+    }
+
+    private boolean shouldShow(ApplicationInfo info, boolean showAll) {
+        if (info.packageName.equals(getPackageName())) return false;
+        if (showAll) return true;
+        PackageStateIndex.State state = mPackageStates.getState(info);
+
+        return (!state.system && state.installed) || isHidden(info.packageName) || state.launchable;
+    }
+
+    // Load the icon of a package rendered at the given size, preferring the
+    // ApplicationInfo we already have in the snapshot, and reusing
+    // the icon on disk if the package has not changed since.
+    // The result may be the scratch bitmap of this thread's IconRenderer.
+    @Nullable
+    private Bitmap loadIconCached(String packageName, int sizePx) {
+        ApplicationInfoWrapper app = mSnapshot.get(packageName);
+        if (app == null) {
+            try {
+                app = new ApplicationInfoWrapper(mPackageManager.getPackageInfo(packageName, PM_FLAGS));
+            } catch (PackageManager.NameNotFoundException e) {
+                return null;
+            }
+        }
+        if (app.getInfo() == null) return null;
+
+        Bitmap icon = mIconCache.get(packageName, app.getVersionCode(), app.getLastUpdateTime(), sizePx);
+        if (icon == null) {
+            icon = IconRenderer.get().render(app.getInfo().loadUnbadgedIcon(mPackageManager), sizePx);
+            mIconCache.put(packageName, app.getVersionCode(), app.getLastUpdateTime(), sizePx, icon);
+        }
+        return icon;
+    }
+
+    // Re-evaluate a single package and record the result in the snapshot
+    private void refreshPackage(String packageName) {
+        if (!mSnapshot.isValid()) return;
+
+        PackageInfo info;
+        try {
+            info = mPackageManager.getPackageInfo(packageName, PM_FLAGS);
+        } catch (PackageManager.NameNotFoundException e) {
+            mSnapshot.remove(packageName);
+            mLabelCache.remove(packageName);
+            mIconCache.remove(packageName);
+            return;
+        }
+
+        if (info.applicationInfo != null && shouldShow(info.applicationInfo, mSnapshot.getShowAll())) {
+            ApplicationInfoWrapper app = new ApplicationInfoWrapper(info)
+                    .setHidden(isHidden(packageName));
+            mLabelCache.loadLabel(app);
+            mSnapshot.update(app);
+        } else {
+            mSnapshot.remove(packageName);
+        }
+    }
+
+    // Pass the result of an installation / uninstallation through DummyActivity
+    // on to the client only once the snapshot has been updated, so that the
+    // refresh the client does on success cannot miss the change (the package
+    // broadcast may not have been handled yet by then)
+    private IAppInstallCallback refreshingCallback(String packageName, IAppInstallCallback callback) {
+        return new IAppInstallCallback.Stub() {
+            @Override
+            public void callback(int result) {
+                mScheduler.schedule(ServiceScheduler.PRIORITY_CONTROL, () -> {
+                    if (result == Activity.RESULT_OK) {
+                        refreshPackage(packageName);
+                    }
+                    try {
+                        callback.callback(result);
+                    } catch (RemoteException e) {
+                        // Do Nothing
+                    }
+                });
+            }
+        };
+    }
+
+    // The state of one runBatch() call. Items run one after another; those
+    // that wait for the user (installations / uninstallations through
+    // DummyActivity) continue the batch from their callback, instead of
+    // holding a worker for as long as the user takes.
+    private class BatchRun {
+        private final int mOperation;
+        private final List<ApplicationInfoWrapper> mApps;
+        private final IBatchCallback mCallback;
+        private final List<String> mPackages;
+        private final int[] mResults;
+        // Only touched by whoever is running the batch at the moment
+        private int mNext = 0;
+
+        BatchRun(int operation, List<ApplicationInfoWrapper> apps, IBatchCallback callback) {
+            mOperation = operation;
+            mApps = apps;
+            mCallback = callback;
+            mPackages = new ArrayList<>(apps.size());
+            for (ApplicationInfoWrapper app : apps) {
+                mPackages.add(app.getPackageName());
+            }
+            mResults = new int[apps.size()];
+        }
+
+        // Run items until one has to be waited for, or all are done
+        void next() {
+            while (mNext < mApps.size()) {
+                if (!runItem(mApps.get(mNext))) return;
+            }
+
+            try {
+                mCallback.finished(mPackages, mResults);
+            } catch (RemoteException e) {
+                // Do Nothing
+            }
+        }
+
+        // Returns false if the item has yet to finish,
+        // in which case it continues the batch by itself
+        private boolean runItem(ApplicationInfoWrapper app) {
+            switch (mOperation) {
+                case BATCH_FREEZE:
+                case BATCH_UNFREEZE: {
+                    if (!mIsProfileOwner) {
+                        itemFinished(Activity.RESULT_CANCELED);
+                        return true;
+                    }
+                    boolean done = mPackageStates.setHidden(app.getPackageName(), mOperation == BATCH_FREEZE, false);
+                    refreshPackage(app.getPackageName());
+                    itemFinished(done ? Activity.RESULT_OK : Activity.RESULT_CANCELED);
+                    return true;
+                }
+                case BATCH_INSTALL:
+                case BATCH_UNINSTALL: {
+                    if (!app.isSystem() && mStartActivityProxy == null) {
+                        itemFinished(Activity.RESULT_CANCELED);
+                        return true;
+                    }
+
+                    // Whichever of the callback and the timeout comes first wins
+                    AtomicBoolean answered = new AtomicBoolean(false);
+                    Runnable timeout = () -> {
+                        if (answered.compareAndSet(false, true)) {
+                            itemFinished(Activity.RESULT_CANCELED);
+                            mScheduler.schedule(ServiceScheduler.PRIORITY_CONTROL, this::next);
+                        }
+                    };
+                    IAppInstallCallback callback = new IAppInstallCallback.Stub() {
+                        @Override
+                        public void callback(int result) {
+                            if (answered.compareAndSet(false, true)) {
+                                mHandler.removeCallbacks(timeout);
+                                itemFinished(result);
+                                mScheduler.schedule(ServiceScheduler.PRIORITY_CONTROL, BatchRun.this::next);
+                            }
+                        }
+                    };
+
+                    mHandler.postDelayed(timeout, TimeUnit.MINUTES.toMillis(BATCH_ITEM_TIMEOUT_MINUTES));
+                    try {
+                        if (mOperation == BATCH_INSTALL) {
+                            mBinder.installApp(app, callback);
+                        } else {
+                            mBinder.uninstallApp(app, callback);
+                        }
+                    } catch (RemoteException e) {
+                        // Counts as cancelled
+                        mHandler.removeCallbacks(timeout);
+                        timeout.run();
+                    }
+                    return false;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown batch operation " + mOperation);
+            }
+        }
+
+        private void itemFinished(int result) {
+            mResults[mNext] = result;
+            try {
+                mCallback.progress(mNext + 1, mApps.size(), mPackages.get(mNext), result);
+            } catch (RemoteException e) {
+                // Still finish what was asked for even if nobody is watching
+            }
+            mNext++;
+        }
+    }
+
     private boolean isHidden(String packageName) {
-        return mIsProfileOwner && mPolicyManager.isApplicationHidden(mAdminComponent, packageName);
+        return mIsProfileOwner && mPackageStates.isHidden(packageName);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mScheduler.dump(writer);
+        writer.print(Tracer.dump());
     }
 
     private void setForeground() {
@@ -1,10 +1,16 @@
 package net.typeblog.shelter.ui;
 
+import android.annotation.TargetApi;
 import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.os.Looper;
 import android.os.RemoteException;
+import android.system.ErrnoException;
+import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -14,18 +20,28 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import net.typeblog.shelter.R;
-import net.typeblog.shelter.services.ILoadIconCallback;
+import net.typeblog.shelter.services.ILoadIconsCallback;
 import net.typeblog.shelter.services.IShelterService;
 import net.typeblog.shelter.util.ApplicationInfoWrapper;
+import net.typeblog.shelter.util.IconAtlas;
+import net.typeblog.shelter.util.SearchIndex;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHolder> {
     class ViewHolder extends RecyclerView.ViewHolder {
@@ -34,7 +50,9 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHold
         private TextView mPackage;
         // This text view shows the order of all selected items
         private TextView mSelectOrder;
-        int mIndex = -1;
+        // The app this row is bound to; the position of a row can change
+        // (e.g. after a diff) before it is bound again, so it is not kept
+        private ApplicationInfoWrapper mInfo = null;
         ViewHolder(View view) {
             super(view);
             mIcon = view.findViewById(R.id.list_app_icon);
@@ -48,19 +66,19 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHold
         }
 
         void onClick() {
-            if (mIndex == -1) return;
+            if (mInfo == null) return;
 
             if (!mMultiSelectMode) {
                 // Show available operations via the Fragment
                 // pass the full info to it, since we can't be sure
                 // the index won't change
                 if (mContextMenuHandler != null) {
-                    mContextMenuHandler.showContextMenu(mList.get(mIndex), itemView);
+                    mContextMenuHandler.showContextMenu(mInfo, itemView);
                 }
             } else {
                 // In multi-select mode, single clicks just adds to the selection
                 // or cancels the selection if already selected
-                if (!mSelectedIndices.contains(mIndex)) {
+                if (!mSelection.isSelected(mInfo.getPackageName())) {
                     select();
                 } else {
                     deselect();
@@ -69,7 +87,7 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHold
         }
 
         boolean onLongClick() {
-            if (mIndex == -1) return false;
+            if (mInfo == null) return false;
 
             // If we have an action mode handler, we notify it to enter
             // action mode on long click, and register this adapter
@@ -87,7 +105,7 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHold
         // we need to play the animation of the "select order" appearing
         // on the right side of the item view
         void select() {
-            mSelectedIndices.add(mIndex);
+            mSelection.select(mInfo);
             mSelectOrder.clearAnimation();
             mSelectOrder.startAnimation(AnimationUtils.loadAnimation(itemView.getContext(), R.anim.scale_appear));
             showSelectOrder();
@@ -95,7 +113,7 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHold
 
         // When the user deselects the item
         void deselect() {
-            mSelectedIndices.remove((Integer) mIndex);
+            mSelection.deselect(mInfo.getPackageName());
             mSelectOrder.clearAnimation();
             setUnselectedBackground();
             Animation anim = AnimationUtils.loadAnimation(itemView.getContext(), R.anim.scale_hide);
@@ -107,15 +125,14 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHold
 
                 @Override
                 public void onAnimationEnd(Animation animation) {
-                    if (mActionModeCancelHandler != null && mSelectedIndices.size() == 0) {
+                    if (mActionModeCancelHandler != null && mSelection.isEmpty()) {
                         // If there is no selection left, tell parent to cancel the action mode.
                         mActionModeCancelHandler.cancelActionMode();
                     }
                     // The selection index of items other than this one
                     // can be changed because of the removal of the current one
-                    // Thus, we just notify that the data set has been changed,
-                    // to force redraw all of them.
-                    notifyDataSetChanged();
+                    // Thus, we redraw the selection of all rows (only the visible ones are rebound).
+                    notifySelectionChanged();
                 }
 
                 @Override
@@ -129,7 +146,7 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHold
         // When an item should be displayed in selected state
         // (not necessarily when the user clicked on it; the view might have been recycled)
         void showSelectOrder() {
-            if (!mList.get(mIndex).isHidden()) {
+            if (!mInfo.isHidden()) {
                 itemView.setBackgroundResource(R.color.selectedAppBackground);
             } else {
                 // The app is both frozen and selected
@@ -137,7 +154,7 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHold
                 itemView.setBackgroundResource(R.color.selectedAndDisabledAppBackground);
             }
             mSelectOrder.setVisibility(View.VISIBLE);
-            mSelectOrder.setText(String.valueOf(mSelectedIndices.indexOf(mIndex) + 1));
+            mSelectOrder.setText(String.valueOf(mSelection.getOrder(mInfo.getPackageName())));
         }
 
         // When an item should be displayed in deselected state
@@ -148,61 +165,64 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHold
 
         // Set the background when not in the selected state
         void setUnselectedBackground() {
-            if (!mList.get(mIndex).isHidden()) {
+            if (!mInfo.isHidden()) {
                 itemView.setBackground(null);
             } else {
                 itemView.setBackgroundResource(R.color.disabledAppBackground);
             }
         }
 
-        void setIndex(final int index) {
-            mIndex = index;
+        void bind(final int position) {
+            mInfo = getItem(position);
 
-            if (mIndex >= 0) {
-                // Clear all animations first
-                mSelectOrder.clearAnimation();
+            // Clear all animations first
+            mSelectOrder.clearAnimation();
 
-                ApplicationInfoWrapper info = mList.get(mIndex);
-                mPackage.setText(info.getPackageName());
+            mPackage.setText(mInfo.getPackageName());
+            bindTitle(mInfo);
+            bindSelection();
 
-                if (info.isHidden()) {
-                    String label = String.format(mLabelDisabled, info.getLabel());
-                    mTitle.setText(label);
-                } else {
-                    mTitle.setText(info.getLabel());
-                }
+            // Load the application icon from cache
+            // or populate the cache through the service
+            Bitmap icon = mIconCache.get(IconCache.key(mIsRemote, mInfo));
+            if (icon != null) {
+                mIcon.setImageBitmap(icon);
+            } else {
+                mIcon.setImageDrawable(mDefaultIcon);
+                requestIcon(position);
+            }
+        }
 
-                // Special logic when in multi-select mode and this item is selected
-                if (mMultiSelectMode && mSelectedIndices.contains(mIndex)) {
-                    showSelectOrder();
-                } else {
-                    hideSelectOrder();
+        // Only redraw what the payloads say has changed, keeping the icon
+        void bind(final int position, List<Object> payloads) {
+            // The item may be a newer version of the same app
+            mInfo = getItem(position);
+
+            for (Object payload : payloads) {
+                if (payload == PAYLOAD_HIDDEN) {
+                    bindTitle(mInfo);
+                    bindSelection();
+                } else if (payload == PAYLOAD_SELECTION) {
+                    bindSelection();
                 }
+            }
+        }
 
-                // Load the application icon from cache
-                // or populate the cache through the service
-                if (mIconCache.containsKey(info.getPackageName())) {
-                    mIcon.setImageBitmap(mIconCache.get(info.getPackageName()));
-                } else {
-                    mIcon.setImageDrawable(mDefaultIcon);
-
-                    try {
-                        mService.loadIcon(info, new ILoadIconCallback.Stub() {
-                            @Override
-                            public void callback(Bitmap icon) {
-                                if (index == mIndex) {
-                                    mHandler.post(() -> mIcon.setImageBitmap(icon));
-                                }
-
-                                synchronized (AppListAdapter.class) {
-                                    mIconCache.put(info.getPackageName(), icon);
-                                }
-                            }
-                        });
-                    } catch (RemoteException e) {
-                        // Do Nothing
-                    }
-                }
+        void bindTitle(ApplicationInfoWrapper info) {
+            if (info.isHidden()) {
+                String label = String.format(mLabelDisabled, info.getLabel());
+                mTitle.setText(label);
+            } else {
+                mTitle.setText(info.getLabel());
+            }
+        }
+
+        void bindSelection() {
+            // Special logic when in multi-select mode and this item is selected
+            if (mMultiSelectMode && mSelection.isSelected(mInfo.getPackageName())) {
+                showSelectOrder();
+            } else {
+                hideSelectOrder();
             }
         }
     }
@@ -223,25 +243,94 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHold
     private List<ApplicationInfoWrapper> mOrigList = new ArrayList<>();
     // The list of applications that is ACTUALLY displayed
     // (after filtering by search query if applicable)
-    private List<ApplicationInfoWrapper> mList = new ArrayList<>();
+    // Changes to it are diffed in the background, and only the rows
+    // that have actually changed are rebound.
+    private final AsyncListDiffer<ApplicationInfoWrapper> mDiffer =
+            new AsyncListDiffer<>(this, DIFF_CALLBACK);
     private String mSearchQuery = null;
+    // Search runs on an index of mOrigList, rebuilt in the background
+    // (reusing unchanged entries) on the first query after a change.
+    // Everything here is only accessed from the main thread.
+    private SearchIndex<ApplicationInfoWrapper> mSearchIndex = null;
+    private boolean mSearchIndexStale = true;
+    private Future<?> mSearchTask = null;
+    private int mSearchSeq = 0;
+    private final Runnable mSearchRunnable = this::notifyChange;
     private IShelterService mService;
     private Drawable mDefaultIcon;
     private String mLabelDisabled;
-    private Map<String, Bitmap> mIconCache = new HashMap<>();
+    private IconCache mIconCache = IconCache.getInstance();
+    private boolean mIsRemote;
     private ContextMenuHandler mContextMenuHandler = null;
     private ActionModeHandler mActionModeHandler = null;
     private ActionModeCancelHandler mActionModeCancelHandler = null;
     private Handler mHandler = new Handler(Looper.getMainLooper());
+    private RecyclerView mRecyclerView = null;
+
+    // Icons are loaded in batches covering the rows bound during one
+    // frame plus a margin around them, instead of one call per row.
+    // Everything here is only accessed from the main thread.
+    private int mIconSize = 0;
+    private boolean mIconRequestPosted = false;
+    private int mIconRequestMin = Integer.MAX_VALUE;
+    private int mIconRequestMax = -1;
+    // Package name -> cache key of the icon requested for it
+    private Map<String, String> mIconsInFlight = new HashMap<>();
+    // The batches still expected to deliver, with the packages they were asked for
+    private Map<ILoadIconsCallback, List<String>> mIconBatches = new HashMap<>();
+
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+    // Shared by the lists of both profiles; only one query is typed at a time
+    private static final ThreadPoolExecutor sSearchExecutor;
+    static {
+        sSearchExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), (r) -> new Thread(r, "AppListSearch"));
+        sSearchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Payloads for partial rebinds of a row
+    private static final Object PAYLOAD_HIDDEN = new Object();
+    private static final Object PAYLOAD_SELECTION = new Object();
+
+    // Rows are the same app if they have the same package name;
+    // a change of only the hidden state does not need the icon redrawn
+    private static final DiffUtil.ItemCallback<ApplicationInfoWrapper> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<ApplicationInfoWrapper>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull ApplicationInfoWrapper oldItem, @NonNull ApplicationInfoWrapper newItem) {
+                    return oldItem.getPackageName().equals(newItem.getPackageName());
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull ApplicationInfoWrapper oldItem, @NonNull ApplicationInfoWrapper newItem) {
+                    return isSameVersion(oldItem, newItem) && oldItem.isHidden() == newItem.isHidden();
+                }
+
+                @Override
+                public Object getChangePayload(@NonNull ApplicationInfoWrapper oldItem, @NonNull ApplicationInfoWrapper newItem) {
+                    return isSameVersion(oldItem, newItem) ? PAYLOAD_HIDDEN : null;
+                }
+
+                private boolean isSameVersion(ApplicationInfoWrapper oldItem, ApplicationInfoWrapper newItem) {
+                    return oldItem.getVersionCode() == newItem.getVersionCode()
+                            && oldItem.getLastUpdateTime() == newItem.getLastUpdateTime()
+                            && Objects.equals(oldItem.getLabel(), newItem.getLabel());
+                }
+            };
+
+    // Rows to load around the bound ones, in both directions
+    private static final int ICON_PREFETCH = 10;
+    private static final int ICON_SIZE_DP = 48;
 
     // Multi-selection mode
     private boolean mAllowMultiSelect = false;
     private boolean mMultiSelectMode = false;
-    private List<Integer> mSelectedIndices = new ArrayList<>();
+    private SelectionModel mSelection = new SelectionModel();
 
-    AppListAdapter(IShelterService service, Drawable defaultIcon) {
+    AppListAdapter(IShelterService service, Drawable defaultIcon, boolean isRemote) {
         mService = service;
         mDefaultIcon = defaultIcon;
+        mIsRemote = isRemote;
     }
 
     void setContextMenuHandler(ContextMenuHandler handler) {
@@ -270,53 +359,286 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHold
 
     void cancelMultiSelectMode() {
         mMultiSelectMode = false;
-        mSelectedIndices.clear();
-        notifyDataSetChanged();
+        mSelection.clear();
+        notifySelectionChanged();
+    }
+
+    // Redraw the selection state of all rows
+    private void notifySelectionChanged() {
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
     }
 
     List<ApplicationInfoWrapper> getSelectedItems() {
         if (!mMultiSelectMode) return null;
-        if (mSelectedIndices.size() == 0) return null;
+        if (mSelection.isEmpty()) return null;
 
-        return mSelectedIndices.stream()
-                .map((idx) -> mList.get(idx))
-                .collect(Collectors.toList());
+        return mSelection.getSelected();
+    }
+
+    // Selected apps keep their place in the selection
+    // but should reflect the latest info from the service
+    private void updateSelection(List<ApplicationInfoWrapper> apps) {
+        if (mSelection.isEmpty()) return;
+        for (ApplicationInfoWrapper app : apps) {
+            mSelection.update(app);
+        }
+    }
+
+    // A copy of the full list, regardless of search
+    List<ApplicationInfoWrapper> getAllItems() {
+        return new ArrayList<>(mOrigList);
     }
 
     void setData(List<ApplicationInfoWrapper> apps) {
         mOrigList.clear();
-        mList.clear();
-        mIconCache.clear();
         mOrigList.addAll(apps);
+        updateSelection(apps);
+        mSearchIndexStale = true;
+        notifyChange();
+    }
+
+    // Apply the changes since the last known generation of the list
+    // Changed entries replace the old ones with the same package name
+    void updateData(List<ApplicationInfoWrapper> changed, List<String> removed) {
+        Set<String> stale = new HashSet<>(removed);
+        for (String pkg : removed) {
+            mSelection.deselect(pkg);
+        }
+        for (ApplicationInfoWrapper app : changed) {
+            stale.add(app.getPackageName());
+        }
+        mOrigList.removeIf((app) -> stale.contains(app.getPackageName()));
+        List<ApplicationInfoWrapper> sorted = new ArrayList<>(changed);
+        sorted.sort(ApplicationInfoWrapper.DISPLAY_ORDER);
+        appendData(sorted);
+    }
+
+    // Merge a sorted page of apps into the current (sorted) list
+    // Used when the list is delivered in pages by the service
+    void appendData(List<ApplicationInfoWrapper> apps) {
+        List<ApplicationInfoWrapper> merged = new ArrayList<>(mOrigList.size() + apps.size());
+        int i = 0, j = 0;
+        while (i < mOrigList.size() && j < apps.size()) {
+            if (ApplicationInfoWrapper.DISPLAY_ORDER.compare(mOrigList.get(i), apps.get(j)) <= 0) {
+                merged.add(mOrigList.get(i++));
+            } else {
+                merged.add(apps.get(j++));
+            }
+        }
+        merged.addAll(mOrigList.subList(i, mOrigList.size()));
+        merged.addAll(apps.subList(j, apps.size()));
+        mOrigList.clear();
+        mOrigList.addAll(merged);
+        updateSelection(apps);
+        mSearchIndexStale = true;
         notifyChange();
     }
 
     // null = clear search query
+    // Queries are only run once typing has paused for a moment
     void setSearchQuery(String query) {
         mSearchQuery = query;
-        notifyChange();
+        mHandler.removeCallbacks(mSearchRunnable);
+        if (query == null) {
+            notifyChange();
+        } else {
+            mHandler.postDelayed(mSearchRunnable, SEARCH_DEBOUNCE_MS);
+        }
     }
 
     // Call this on ACTUAL data set change and/or search query change
     private void notifyChange() {
-        mList.clear();
+        // Anything still running is outdated now
+        int seq = ++mSearchSeq;
+        if (mSearchTask != null) {
+            mSearchTask.cancel(true);
+            mSearchTask = null;
+        }
+
         if (mSearchQuery == null) {
             // No search query, do not filter
-            mList.addAll(mOrigList);
-        } else {
-            // Filter by search query
-            mList.addAll(mOrigList.stream()
-                    .filter((app) ->
-                            app.getPackageName().toLowerCase().contains(mSearchQuery)
-                                    || app.getLabel().toLowerCase().contains(mSearchQuery))
-                    .collect(Collectors.toList()));
+            mDiffer.submitList(new ArrayList<>(mOrigList));
+            return;
+        }
+
+        // Filter by search query in the background,
+        // building the index first if the list has changed
+        String query = mSearchQuery;
+        SearchIndex<ApplicationInfoWrapper> previous = mSearchIndex;
+        List<ApplicationInfoWrapper> snapshot =
+                (mSearchIndexStale || previous == null) ? new ArrayList<>(mOrigList) : null;
+        mSearchTask = sSearchExecutor.submit(() -> {
+            SearchIndex<ApplicationInfoWrapper> index = snapshot == null ? previous :
+                    SearchIndex.build(snapshot, ApplicationInfoWrapper.SEARCH_FIELDS, previous);
+            if (index == null) return;
+            List<ApplicationInfoWrapper> result = index.search(query);
+            if (result == null) return;
+
+            mHandler.post(() -> {
+                if (seq != mSearchSeq) return;
+                mSearchTask = null;
+                if (index != mSearchIndex) {
+                    mSearchIndex = index;
+                    mSearchIndexStale = false;
+                }
+                mDiffer.submitList(result);
+            });
+        });
+    }
+
+    // Queue the icon of the row at this position for the next batch
+    private void requestIcon(int position) {
+        mIconRequestMin = Math.min(mIconRequestMin, position);
+        mIconRequestMax = Math.max(mIconRequestMax, position);
+        if (!mIconRequestPosted) {
+            mIconRequestPosted = true;
+            mHandler.post(this::loadIconBatch);
+        }
+    }
+
+    private void loadIconBatch() {
+        mIconRequestPosted = false;
+        int from = Math.max(0, mIconRequestMin - ICON_PREFETCH);
+        int to = Math.min(getItemCount(), mIconRequestMax + ICON_PREFETCH + 1);
+        mIconRequestMin = Integer.MAX_VALUE;
+        mIconRequestMax = -1;
+
+        // Earlier batches are mostly for rows that have been scrolled past;
+        // cancel them in favor of this one, in one call we do not wait for.
+        // Those that have started already still deliver, and their icons
+        // are cached all the same, but nothing is expected from them any more.
+        // Rows of theirs that are still on screen are requested again below.
+        if (!mIconBatches.isEmpty()) {
+            List<IBinder> outdated = new ArrayList<>();
+            for (Map.Entry<ILoadIconsCallback, List<String>> batch : mIconBatches.entrySet()) {
+                outdated.add(batch.getKey().asBinder());
+                mIconsInFlight.keySet().removeAll(batch.getValue());
+            }
+            mIconBatches.clear();
+            try {
+                mService.cancelLoadIcons(outdated);
+            } catch (RemoteException e) {
+                // Do Nothing
+            }
+        }
+
+        List<String> packages = new ArrayList<>();
+        Map<String, String> keys = new HashMap<>();
+        // Rows on screen first, wherever they are relative to the bound ones
+        if (mRecyclerView != null) {
+            for (int i = 0; i < mRecyclerView.getChildCount(); i++) {
+                ViewHolder vh = (ViewHolder) mRecyclerView.getChildViewHolder(mRecyclerView.getChildAt(i));
+                if (vh.mInfo != null) {
+                    addIconRequest(vh.mInfo, packages, keys);
+                }
+            }
+        }
+        for (int i = from; i < to; i++) {
+            addIconRequest(getItem(i), packages, keys);
+        }
+        if (packages.isEmpty()) return;
+
+        ILoadIconsCallback callback = new ILoadIconsCallback.Stub() {
+            @Override
+            public void callback(List<String> loaded, List<Bitmap> icons, boolean isLast) {
+                mHandler.post(() -> onIconsLoaded(this, keys, loaded, icons, isLast));
+            }
+
+            @Override
+            @TargetApi(Build.VERSION_CODES.O_MR1)
+            public void callbackShared(Bundle atlas, List<String> loaded, int sizePx, boolean isLast) {
+                // Copy the icons out of the atlas right here so that it can be released
+                List<Bitmap> icons;
+                try {
+                    icons = IconAtlas.read(atlas, loaded.size(), sizePx);
+                } catch (ErrnoException e) {
+                    // Those icons will be requested again when their rows are bound next time
+                    icons = new ArrayList<>();
+                    loaded = new ArrayList<>();
+                }
+                List<Bitmap> finalIcons = icons;
+                List<String> finalLoaded = loaded;
+                mHandler.post(() -> onIconsLoaded(this, keys, finalLoaded, finalIcons, isLast));
+            }
+        };
+        mIconsInFlight.putAll(keys);
+        mIconBatches.put(callback, packages);
+
+        try {
+            mService.loadIcons(packages, mIconSize, callback);
+        } catch (RemoteException e) {
+            mIconsInFlight.keySet().removeAll(packages);
+            mIconBatches.remove(callback);
+        }
+    }
+
+    // Add the icon of an app to a batch, unless it is cached, in flight or added already
+    private void addIconRequest(ApplicationInfoWrapper app, List<String> packages, Map<String, String> keys) {
+        String pkg = app.getPackageName();
+        if (keys.containsKey(pkg) || mIconsInFlight.containsKey(pkg)) return;
+        String key = IconCache.key(mIsRemote, app);
+        if (mIconCache.get(key) == null) {
+            packages.add(pkg);
+            keys.put(pkg, key);
+        }
+    }
+
+    // keys are the cache keys of the icons requested in this batch
+    private void onIconsLoaded(ILoadIconsCallback batch, Map<String, String> keys,
+                               List<String> packages, List<Bitmap> icons, boolean isLast) {
+        Map<String, Bitmap> loaded = new HashMap<>();
+        for (int i = 0; i < packages.size(); i++) {
+            String key = keys.get(packages.get(i));
+            if (key == null) continue;
+            // A later batch may have asked for the same icon again
+            mIconsInFlight.remove(packages.get(i), key);
+            loaded.put(packages.get(i), icons.get(i));
+            mIconCache.put(key, icons.get(i));
+        }
+
+        if (isLast) {
+            // Whatever the service could not load will not come any more
+            List<String> requested = mIconBatches.remove(batch);
+            if (requested != null) {
+                for (String pkg : requested) {
+                    mIconsInFlight.remove(pkg, keys.get(pkg));
+                }
+            }
+        }
+
+        // Update the rows currently on screen
+        if (mRecyclerView == null) return;
+        for (int i = 0; i < mRecyclerView.getChildCount(); i++) {
+            ViewHolder vh = (ViewHolder) mRecyclerView.getChildViewHolder(mRecyclerView.getChildAt(i));
+            if (vh.mInfo == null) continue;
+            Bitmap icon = loaded.get(vh.mInfo.getPackageName());
+            if (icon != null) {
+                vh.mIcon.setImageBitmap(icon);
+            }
         }
-        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        mRecyclerView = recyclerView;
+        mIconSize = Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
+                ICON_SIZE_DP, recyclerView.getResources().getDisplayMetrics()));
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        mRecyclerView = null;
     }
 
     @Override
     public int getItemCount() {
-        return mList.size();
+        return mDiffer.getCurrentList().size();
+    }
+
+    private ApplicationInfoWrapper getItem(int position) {
+        return mDiffer.getCurrentList().get(position);
     }
 
     @NonNull
@@ -327,19 +649,26 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.ViewHold
         }
         LayoutInflater inflater = LayoutInflater.from(viewGroup.getContext());
         View view = inflater.inflate(R.layout.app_list_item, viewGroup, false);
-        ViewHolder vh = new ViewHolder(view);
-        vh.setIndex(i);
-        return vh;
+        return new ViewHolder(view);
     }
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder viewHolder, int i) {
-        viewHolder.setIndex(i);
+        viewHolder.bind(i);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder viewHolder, int i, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            viewHolder.bind(i);
+        } else {
+            viewHolder.bind(i, payloads);
+        }
     }
 
     @Override
     public void onViewRecycled(@NonNull ViewHolder holder) {
         super.onViewRecycled(holder);
-        holder.setIndex(-1);
+        holder.mInfo = null;
     }
 }
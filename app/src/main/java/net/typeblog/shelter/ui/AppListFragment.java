@@ -1,6 +1,7 @@
 package net.typeblog.shelter.ui;
 
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
@@ -19,6 +20,7 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ProgressBar;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -26,6 +28,7 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.view.ActionMode;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -33,12 +36,15 @@ import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
 import net.typeblog.shelter.R;
 import net.typeblog.shelter.services.IAppInstallCallback;
-import net.typeblog.shelter.services.IGetAppsCallback;
+import net.typeblog.shelter.services.IBatchCallback;
+import net.typeblog.shelter.services.IGetAppsDeltaCallback;
+import net.typeblog.shelter.services.IGetAppsPagedCallback;
 import net.typeblog.shelter.services.ILoadIconCallback;
 import net.typeblog.shelter.services.IShelterService;
 import net.typeblog.shelter.services.ShelterService;
 import net.typeblog.shelter.util.ApplicationInfoWrapper;
 import net.typeblog.shelter.util.LocalStorageManager;
+import net.typeblog.shelter.util.SettingsManager;
 import net.typeblog.shelter.util.Utility;
 
 import java.util.ArrayList;
@@ -61,12 +67,27 @@ public class AppListFragment extends BaseFragment {
     private static final int MENU_ITEM_ALLOW_CROSS_PROFILE_WIDGET = 10008;
     private static final int MENU_ITEM_ALLOW_CROSS_PROFILE_INTERACTION = 10009;
 
+    private static final float STALE_LIST_ALPHA = 0.5f;
+
     private IShelterService mService = null;
     private boolean mIsRemote = false;
     private boolean mRefreshing = false;
     private Drawable mDefaultIcon = null;
     private ApplicationInfoWrapper mSelectedApp = null;
 
+    // Shared with the other fragment, and survives recreation of this one
+    private AppListRepository mRepository = null;
+
+    // Generation of the list we currently show, as reported by the service
+    // -1 means we have nothing yet and need to load the full list
+    private long mGeneration = -1;
+    // The "show all" state that mGeneration was loaded with
+    private boolean mGenerationShowAll = false;
+    // Showing the list of an earlier run until the full list has arrived
+    // Its entries may no longer be accurate (or installed at all), so no
+    // action is taken on them until then
+    private boolean mShowingStale = false;
+
     // Cache of allowed Cross-profile widget providers
     // Only useful if this fragment manages the work profile
     private Set<String> mCrossProfileWidgetProviders = new HashSet<>();
@@ -128,6 +149,7 @@ public class AppListFragment extends BaseFragment {
         IBinder service = getArguments().getBinder("service");
         mService = IShelterService.Stub.asInterface(service);
         mIsRemote = getArguments().getBoolean("is_remote");
+        mRepository = new ViewModelProvider(requireActivity()).get(AppListRepository.class);
     }
 
     @Override
@@ -164,8 +186,9 @@ public class AppListFragment extends BaseFragment {
         // Save the views
         mList = view.findViewById(R.id.fragment_list_recycler_view);
         mSwipeRefresh = view.findViewById(R.id.fragment_swipe_refresh);
-        mAdapter = new AppListAdapter(mService, mDefaultIcon);
+        mAdapter = new AppListAdapter(mService, mDefaultIcon, mIsRemote);
         mAdapter.setContextMenuHandler((info, v) -> {
+            if (mShowingStale) return;
             mSelectedApp = info;
             mList.showContextMenuForChild(v);
         });
@@ -181,16 +204,62 @@ public class AppListFragment extends BaseFragment {
             });
         }
         mList.setAdapter(mAdapter);
+
+        // Show the last list we know of right away; onResume() will
+        // then only fetch what has changed since in the background
+        AppListRepository.Snapshot snapshot = mRepository.get(mIsRemote);
+        mShowingStale = false;
+        if (snapshot != null && snapshot.stale) {
+            showStaleSnapshot(snapshot);
+        } else if (snapshot != null) {
+            mAdapter.setData(snapshot.apps);
+            mGeneration = snapshot.generation;
+            mGenerationShowAll = snapshot.showAll;
+            publishApps();
+        } else {
+            // The new adapter has nothing; a delta would not do
+            mGeneration = -1;
+            // The list of the last run may still be loading
+            mRepository.setStaleSnapshotListener(mIsRemote, (s) -> {
+                // Only if the service has not been faster
+                if (mGeneration < 0 && mAdapter.getItemCount() == 0) {
+                    showStaleSnapshot(s);
+                }
+            });
+        }
         mList.setLayoutManager(new LinearLayoutManager(getActivity()));
         mList.setHasFixedSize(true);
 
-        mSwipeRefresh.setOnRefreshListener(this::refresh);
+        // A manual refresh always reloads everything
+        mSwipeRefresh.setOnRefreshListener(() -> refresh(true));
         registerForContextMenu(mList);
 
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        mRepository.setStaleSnapshotListener(mIsRemote, null);
+    }
+
+    // The list of the last run, dimmed until replaced by
+    // the full list from the service
+    private void showStaleSnapshot(AppListRepository.Snapshot snapshot) {
+        mAdapter.setData(snapshot.apps);
+        mShowingStale = true;
+        mList.setAlpha(STALE_LIST_ALPHA);
+        mGeneration = -1;
+        ((MainActivity) getActivity()).getUnifiedSearch().setApps(mIsRemote, snapshot.apps);
+    }
+
     void refresh() {
+        refresh(false);
+    }
+
+    // Unless forced to reload everything, only fetch the changes
+    // since the generation we have when possible
+    void refresh(boolean full) {
         if (mAdapter == null) return;
         if (mRefreshing) return;
         if (mAdapter.isMultiSelectMode()) {
@@ -198,51 +267,145 @@ public class AppListFragment extends BaseFragment {
             return; // Disallow refreshing when we are multi-selecting
         }
         mRefreshing = true;
-        mSwipeRefresh.setRefreshing(true);
 
+        boolean showAll = ((MainActivity) getActivity()).mShowAll;
+        if (!full && mGeneration >= 0 && mGenerationShowAll == showAll) {
+            refreshDelta(showAll);
+        } else {
+            refreshFull(showAll);
+        }
+    }
+
+    private void refreshDelta(boolean showAll) {
         try {
-            mService.getApps(new IGetAppsCallback.Stub() {
+            mService.getAppsSince(mGeneration, showAll, new IGetAppsDeltaCallback.Stub() {
                 @Override
-                public void callback(List<ApplicationInfoWrapper> apps) {
+                public void callback(long generation, List<ApplicationInfoWrapper> changed, List<String> removed) {
                     if (mIsRemote) {
-                        mCrossProfileWidgetProviders.clear();
-                        mCrossProfilePackages.clear();
+                        updateCrossProfileState();
+                        for (String pkg : removed) {
+                            LocalStorageManager.getInstance().removeFromStringList(
+                                    LocalStorageManager.PREF_AUTO_FREEZE_LIST_WORK_PROFILE, pkg);
+                        }
+                    }
+                    runOnUiThread(() -> {
+                        mGeneration = generation;
+                        if (!changed.isEmpty() || !removed.isEmpty()) {
+                            mAdapter.updateData(changed, removed);
+                        }
+                        publishApps();
+                        mRefreshing = false;
+                    });
+                }
+
+                @Override
+                public void outdated() {
+                    runOnUiThread(() -> refreshFull(showAll));
+                }
+            });
+        } catch (RemoteException e) {
+            mRefreshing = false;
+        }
+    }
+
+    private void refreshFull(boolean showAll) {
+        mSwipeRefresh.setRefreshing(true);
 
-                        // Update the cross-profile packages / widget providers list
-                        try {
-                            mCrossProfileWidgetProviders.addAll(mService.getCrossProfileWidgetProviders());
+        try {
+            mService.getAppsPaged(new IGetAppsPagedCallback.Stub() {
+                // All the apps received so far in this refresh
+                private final List<ApplicationInfoWrapper> mReceived = new ArrayList<>();
 
-                            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R)
-                                mCrossProfilePackages.addAll(mService.getCrossProfilePackages());
-                        } catch (RemoteException ignored) {
+                @Override
+                public void callback(long generation, List<ApplicationInfoWrapper> apps, boolean isLast) {
+                    boolean isFirst = mReceived.isEmpty();
+                    mReceived.addAll(apps);
+                    List<ApplicationInfoWrapper> all = isLast ? new ArrayList<>(mReceived) : null;
 
-                        }
+                    if (isFirst && mIsRemote) {
+                        updateCrossProfileState();
                     }
 
-                    if (mIsRemote) {
+                    if (isLast && mIsRemote) {
+                        // Only the full list can tell which apps are missing
                         Utility.deleteMissingApps(
                                 LocalStorageManager.PREF_AUTO_FREEZE_LIST_WORK_PROFILE,
-                                apps);
+                                mReceived);
                     }
                     runOnUiThread(() -> {
-                        mSwipeRefresh.setRefreshing(false);
-                        mAdapter.setData(apps);
-                        mRefreshing = false;
+                        // Show the first page as soon as it arrives,
+                        // and merge the rest in as they come.
+                        // A stale list stays until it can be replaced at once.
+                        if (mShowingStale) {
+                            if (isLast) {
+                                mAdapter.setData(all);
+                                mShowingStale = false;
+                                mList.setAlpha(1.0f);
+                            }
+                        } else if (isFirst) {
+                            mAdapter.setData(apps);
+                        } else {
+                            mAdapter.appendData(apps);
+                        }
+
+                        if (isLast) {
+                            mSwipeRefresh.setRefreshing(false);
+                            mGeneration = generation;
+                            mGenerationShowAll = showAll;
+                            mRefreshing = false;
+                            publishApps();
+                        }
                     });
                 }
-            }, ((MainActivity) getActivity()).mShowAll);
+            }, showAll);
         } catch (RemoteException e) {
             // Just... do nothing for now
         }
     }
 
+    // Keep the repository and the search across both profiles up to date with our list
+    private void publishApps() {
+        List<ApplicationInfoWrapper> apps = mAdapter.getAllItems();
+        mRepository.put(mIsRemote, apps, mGeneration, mGenerationShowAll);
+        MainActivity activity = (MainActivity) getActivity();
+        if (activity != null) {
+            activity.getUnifiedSearch().setApps(mIsRemote, apps);
+        }
+    }
+
+    // Update the cross-profile packages / widget providers list
+    // Called from binder threads
+    private void updateCrossProfileState() {
+        mCrossProfileWidgetProviders.clear();
+        mCrossProfilePackages.clear();
+
+        try {
+            mCrossProfileWidgetProviders.addAll(mService.getCrossProfileWidgetProviders());
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R)
+                mCrossProfilePackages.addAll(mService.getCrossProfilePackages());
+        } catch (RemoteException ignored) {
+
+        }
+    }
+
     // Enter multi-select mode for work profile
     boolean createMultiSelectActionMode() {
+        if (mShowingStale) return false;
         mActionMode = ((AppCompatActivity) getActivity()).startSupportActionMode(new ActionMode.Callback() {
             @Override
             public boolean onCreateActionMode(ActionMode mode, Menu menu) {
                 menu.add(Menu.NONE, MENU_ITEM_CREATE_UNFREEZE_SHORTCUT, Menu.NONE, R.string.create_unfreeze_shortcut)
                         .setShowAsAction(MenuItem.SHOW_AS_ACTION_NEVER);
+                // Batch versions of the operations in the context menu
+                menu.add(Menu.NONE, MENU_ITEM_FREEZE, Menu.NONE, R.string.freeze_app)
+                        .setShowAsAction(MenuItem.SHOW_AS_ACTION_NEVER);
+                menu.add(Menu.NONE, MENU_ITEM_UNFREEZE, Menu.NONE, R.string.unfreeze_app)
+                        .setShowAsAction(MenuItem.SHOW_AS_ACTION_NEVER);
+                menu.add(Menu.NONE, MENU_ITEM_CLONE, Menu.NONE, R.string.clone_to_main_profile)
+                        .setShowAsAction(MenuItem.SHOW_AS_ACTION_NEVER);
+                menu.add(Menu.NONE, MENU_ITEM_UNINSTALL, Menu.NONE, R.string.uninstall_app)
+                        .setShowAsAction(MenuItem.SHOW_AS_ACTION_NEVER);
                 return true;
             }
 
@@ -255,7 +418,7 @@ public class AppListFragment extends BaseFragment {
             @Override
             public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
                 List<ApplicationInfoWrapper> list = mAdapter.getSelectedItems();
-                if (list == null) {
+                if (list == null || mShowingStale) {
                     // We can't perform any action on nothing
                     return false;
                 }
@@ -268,6 +431,26 @@ public class AppListFragment extends BaseFragment {
                         loadIconAndAddUnfreezeShortcut(list.get(0), list);
                         mode.finish();
                         return true;
+                    case MENU_ITEM_FREEZE:
+                        runBatch(mService, ShelterService.BATCH_FREEZE, list);
+                        mode.finish();
+                        return true;
+                    case MENU_ITEM_UNFREEZE:
+                        runBatch(mService, ShelterService.BATCH_UNFREEZE, list);
+                        mode.finish();
+                        return true;
+                    case MENU_ITEM_CLONE:
+                        // Installed by the service on the other side; system apps are skipped
+                        // since there is no way to clone them to the main profile
+                        runBatch(((MainActivity) getActivity()).getOtherService(mIsRemote),
+                                ShelterService.BATCH_INSTALL,
+                                list.stream().filter((app) -> !app.isSystem()).collect(Collectors.toList()));
+                        mode.finish();
+                        return true;
+                    case MENU_ITEM_UNINSTALL:
+                        runBatch(mService, ShelterService.BATCH_UNINSTALL, list);
+                        mode.finish();
+                        return true;
                 }
 
                 return false;
@@ -345,7 +528,7 @@ public class AppListFragment extends BaseFragment {
 
     @Override
     public boolean onContextItemSelected(MenuItem item) {
-        if (mSelectedApp == null) return false;
+        if (mSelectedApp == null || mShowingStale) return false;
 
         switch (item.getItemId()) {
             case MENU_ITEM_CLONE:
@@ -411,6 +594,7 @@ public class AppListFragment extends BaseFragment {
                     LocalStorageManager.getInstance().removeFromStringList(
                             LocalStorageManager.PREF_AUTO_FREEZE_LIST_WORK_PROFILE, mSelectedApp.getPackageName());
                 }
+                SettingsManager.getInstance().syncSettingsToProfile();
                 return true;
             case MENU_ITEM_ALLOW_CROSS_PROFILE_WIDGET: {
                 boolean newState = !item.isChecked();
@@ -450,6 +634,51 @@ public class AppListFragment extends BaseFragment {
         return super.onContextItemSelected(item);
     }
 
+    // Run an operation on many apps through one call, showing the progress,
+    // and refresh once everything is done
+    void runBatch(IShelterService service, int operation, List<ApplicationInfoWrapper> apps) {
+        if (apps.isEmpty()) return;
+
+        ViewGroup layout = (ViewGroup) LayoutInflater.from(getContext())
+                .inflate(R.layout.progress_dialog, (ViewGroup) getView(), false);
+        ProgressBar progress = layout.findViewById(R.id.progress);
+        progress.setMax(apps.size());
+        AlertDialog dialog = new AlertDialog.Builder(getContext())
+                .setCancelable(false)
+                .setTitle(R.string.batch_operation)
+                .setView(layout)
+                .create();
+        dialog.show();
+
+        try {
+            service.runBatch(operation, apps, new IBatchCallback.Stub() {
+                @Override
+                public void progress(int done, int total, String packageName, int result) {
+                    runOnUiThread(() -> progress.setProgress(done));
+                }
+
+                @Override
+                public void finished(List<String> packages, int[] results) {
+                    int succeeded = 0;
+                    for (int result : results) {
+                        if (result == Activity.RESULT_OK) succeeded++;
+                    }
+                    final int count = succeeded;
+                    runOnUiThread(() -> {
+                        dialog.dismiss();
+                        Toast.makeText(getContext(),
+                                getString(R.string.batch_operation_result, count, packages.size()),
+                                Toast.LENGTH_SHORT).show();
+                        LocalBroadcastManager.getInstance(getContext())
+                                .sendBroadcast(new Intent(BROADCAST_REFRESH));
+                    });
+                }
+            });
+        } catch (RemoteException e) {
+            dialog.dismiss();
+        }
+    }
+
     void installOrUninstall(final ApplicationInfoWrapper app, final boolean isInstall) {
         mSelectedApp = null;
         IAppInstallCallback.Stub callback = new IAppInstallCallback.Stub() {
@@ -488,8 +717,10 @@ public class AppListFragment extends BaseFragment {
 
     void loadIconAndAddUnfreezeShortcut(final ApplicationInfoWrapper app, final List<ApplicationInfoWrapper> linkedApps) {
         try {
-            // Call the service to load the latest icon
-            mService.loadIcon(app, new ILoadIconCallback.Stub() {
+            // Call the service to load the latest icon, at the size launchers use
+            int size = ((ActivityManager) getContext().getSystemService(Context.ACTIVITY_SERVICE))
+                    .getLauncherLargeIconSize();
+            mService.loadIcon(app, size, new ILoadIconCallback.Stub() {
                 @Override
                 public void callback(Bitmap icon) {
                     runOnUiThread(() -> addUnfreezeShortcut(app, linkedApps, icon));
@@ -0,0 +1,164 @@
+package net.typeblog.shelter.ui;
+
+import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.AndroidViewModel;
+
+import net.typeblog.shelter.util.ApplicationInfoWrapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// The latest app list of each profile, scoped to MainActivity so that
+// it outlives the AppListFragments (and their views) being recreated
+// by ViewPager2 or a configuration change. A recreated fragment shows
+// the list from here at once, and then only asks its service for the
+// changes since the generation stored along with it.
+//
+// The lists are also written to disk, so that on a cold start the
+// lists of the last run can be shown (marked as stale) before the
+// services have delivered anything.
+// Only accessed from the main thread, except for the disk I/O.
+public class AppListRepository extends AndroidViewModel {
+    static class Snapshot {
+        final List<ApplicationInfoWrapper> apps;
+        // Generation of the list as reported by ShelterService
+        final long generation;
+        final boolean showAll;
+        // Loaded from disk, i.e. from an earlier run; may be outdated in any way
+        final boolean stale;
+
+        Snapshot(List<ApplicationInfoWrapper> apps, long generation, boolean showAll, boolean stale) {
+            this.apps = Collections.unmodifiableList(apps);
+            this.generation = generation;
+            this.showAll = showAll;
+            this.stale = stale;
+        }
+    }
+
+    interface StaleSnapshotListener {
+        void onStaleSnapshot(Snapshot snapshot);
+    }
+
+    private static final String[] SNAPSHOT_FILES = new String[]{"app_list_main", "app_list_work"};
+    private static final int SNAPSHOT_VERSION = 1;
+
+    // [0] = main, [1] = work
+    private final AtomicReferenceArray<Snapshot> mSnapshots = new AtomicReferenceArray<>(2);
+    private final StaleSnapshotListener[] mListeners = new StaleSnapshotListener[2];
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), (r) -> new Thread(r, "AppListRepository"));
+    private boolean mLoadStarted = false;
+
+    public AppListRepository(@NonNull Application application) {
+        super(application);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Start reading the lists of the last run, as early as possible.
+    // Lists delivered by the services before loading finishes win.
+    void load() {
+        if (mLoadStarted) return;
+        mLoadStarted = true;
+
+        mExecutor.execute(() -> {
+            for (int i = 0; i < SNAPSHOT_FILES.length; i++) {
+                final int idx = i;
+                List<ApplicationInfoWrapper> apps = readSnapshot(idx);
+                if (apps == null) continue;
+                mHandler.post(() -> {
+                    Snapshot snapshot = new Snapshot(apps, -1, false, true);
+                    if (mSnapshots.compareAndSet(idx, null, snapshot) && mListeners[idx] != null) {
+                        mListeners[idx].onStaleSnapshot(snapshot);
+                    }
+                });
+            }
+        });
+    }
+
+    // null if there is nothing yet
+    Snapshot get(boolean isRemote) {
+        return mSnapshots.get(isRemote ? 1 : 0);
+    }
+
+    // Called when a list of the last run has been loaded after get()
+    // had returned null; set to null to stop listening
+    void setStaleSnapshotListener(boolean isRemote, StaleSnapshotListener listener) {
+        mListeners[isRemote ? 1 : 0] = listener;
+    }
+
+    void put(boolean isRemote, List<ApplicationInfoWrapper> apps, long generation, boolean showAll) {
+        int idx = isRemote ? 1 : 0;
+        Snapshot snapshot = new Snapshot(new ArrayList<>(apps), generation, showAll, false);
+        mSnapshots.set(idx, snapshot);
+
+        // Only the normal list is worth showing at the next start
+        if (!showAll) {
+            mExecutor.execute(() -> {
+                // Skip it if there is a newer one queued already
+                if (mSnapshots.get(idx) != snapshot) return;
+                writeSnapshot(idx, snapshot.apps);
+            });
+        }
+    }
+
+    private File getFile(int idx) {
+        return new File(getApplication().getCacheDir(), SNAPSHOT_FILES[idx]);
+    }
+
+    private List<ApplicationInfoWrapper> readSnapshot(int idx) {
+        File file = getFile(idx);
+        if (!file.exists()) return null;
+
+        try (DataInputStream is = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (is.readInt() != SNAPSHOT_VERSION) return null;
+            int count = is.readInt();
+            List<ApplicationInfoWrapper> apps = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                apps.add(ApplicationInfoWrapper.readFrom(is));
+            }
+            return apps;
+        } catch (IOException e) {
+            // Not worth anything if broken
+            return null;
+        }
+    }
+
+    private void writeSnapshot(int idx, List<ApplicationInfoWrapper> apps) {
+        File file = getFile(idx);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            os.writeInt(SNAPSHOT_VERSION);
+            os.writeInt(apps.size());
+            for (ApplicationInfoWrapper app : apps) {
+                app.writeTo(os);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+        }
+    }
+}
@@ -5,17 +5,25 @@ import android.app.Activity;
 import android.app.PendingIntent;
 import android.app.ProgressDialog;
 import android.app.admin.DevicePolicyManager;
+import android.content.ActivityNotFoundException;
 import android.content.ComponentName;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.content.pm.LauncherActivityInfo;
+import android.content.pm.LauncherApps;
 import android.content.pm.PackageInstaller;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
 import android.os.RemoteException;
 import android.os.StrictMode;
+import android.os.UserHandle;
+import android.os.UserManager;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 import android.view.WindowManager;
@@ -29,16 +37,19 @@ import androidx.core.content.ContextCompat;
 
 import net.typeblog.shelter.R;
 import net.typeblog.shelter.ShelterApplication;
-import net.typeblog.shelter.receivers.ShelterDeviceAdminReceiver;
-import net.typeblog.shelter.services.FreezeService;
 import net.typeblog.shelter.services.IAppInstallCallback;
 import net.typeblog.shelter.services.IFileShuttleService;
 import net.typeblog.shelter.services.IFileShuttleServiceCallback;
+import net.typeblog.shelter.services.IRunCommandCallback;
 import net.typeblog.shelter.util.AuthenticationUtility;
 import net.typeblog.shelter.util.FileProviderProxy;
 import net.typeblog.shelter.util.InstallationProgressListener;
 import net.typeblog.shelter.util.LocalStorageManager;
+import net.typeblog.shelter.util.ProfileCommand;
+import net.typeblog.shelter.util.ProfileCommandChannel;
+import net.typeblog.shelter.util.ProfileIntentResolver;
 import net.typeblog.shelter.util.SettingsManager;
+import net.typeblog.shelter.util.Tracer;
 import net.typeblog.shelter.util.Utility;
 
 import java.io.File;
@@ -92,6 +103,9 @@ public class DummyActivity extends Activity {
     private static final int REQUEST_PERMISSION_EXTERNAL_STORAGE= 2;
     private static final int REQUEST_PERMISSION_POST_NOTIFICATIONS = 3;
 
+    // How long to wait for the work profile to unfreeze an app before giving up
+    private static final long UNFREEZE_TIMEOUT_MS = 10000;
+
     private static boolean sHasRequestedPermission = false;
 
     // A state variable to record the last time DummyActivity was informed that someone
@@ -122,44 +136,55 @@ public class DummyActivity extends Activity {
 
     private boolean mIsProfileOwner = false;
     private DevicePolicyManager mPolicyManager = null;
+    // Shared with the other profile if the intent came from there
+    private String mTraceId = null;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-
-        mPolicyManager = getSystemService(DevicePolicyManager.class);
-        mIsProfileOwner = mPolicyManager.isProfileOwnerApp(getPackageName());
-        if (mIsProfileOwner) {
-            // If we are the profile owner, we enforce all our policies
-            // so that we can make sure those are updated with our app
-            Utility.enforceWorkProfilePolicies(this);
-            Utility.enforceUserRestrictions(this);
-            SettingsManager.getInstance().applyAll();
-
-            synchronized (DummyActivity.class) {
-                // Do not show permission dialog during finalization -- it will conflict with the provisioning UI
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU && !sHasRequestedPermission
-                        && !FINALIZE_PROVISION.equals(getIntent().getAction())) {
-                    // Avoid requesting permission multiple times in one session
-                    // This also prevents multiple instances of DummyActivity from being blocked on each other
-                    sHasRequestedPermission = true;
-                    // We pretty much only send notifications to keep the process inside work profile alive
-                    // as such, only request the notification permission from inside the profile
-                    // This will ideally be shown and done when the user sees the app list UI for the first time
-                    if (ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
-                            != PackageManager.PERMISSION_GRANTED) {
-                        requestPermissions(new String[]{Manifest.permission.POST_NOTIFICATIONS}, REQUEST_PERMISSION_POST_NOTIFICATIONS);
-                        // Continue once the request has been completed (see onRequestPermissionResult)
-                        return;
+        mTraceId = Tracer.getTraceId(getIntent());
+        if (mTraceId == null) mTraceId = Tracer.newTraceId();
+
+        try (Tracer.Section ignored = Tracer.begin("DummyActivity.onCreate", mTraceId)) {
+            mPolicyManager = getSystemService(DevicePolicyManager.class);
+            mIsProfileOwner = mPolicyManager.isProfileOwnerApp(getPackageName());
+            if (mIsProfileOwner) {
+                // If we are the profile owner, we enforce all our policies
+                // so that we can make sure those are updated with our app
+                // (only if something has changed, except during provisioning)
+                Utility.reconcileWorkProfilePolicies(this, FINALIZE_PROVISION.equals(getIntent().getAction()));
+
+                synchronized (DummyActivity.class) {
+                    // Do not show permission dialog during finalization -- it will conflict with the provisioning UI
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU && !sHasRequestedPermission
+                            && !FINALIZE_PROVISION.equals(getIntent().getAction())) {
+                        // Avoid requesting permission multiple times in one session
+                        // This also prevents multiple instances of DummyActivity from being blocked on each other
+                        sHasRequestedPermission = true;
+                        // We pretty much only send notifications to keep the process inside work profile alive
+                        // as such, only request the notification permission from inside the profile
+                        // This will ideally be shown and done when the user sees the app list UI for the first time
+                        if (ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                                != PackageManager.PERMISSION_GRANTED) {
+                            requestPermissions(new String[]{Manifest.permission.POST_NOTIFICATIONS}, REQUEST_PERMISSION_POST_NOTIFICATIONS);
+                            // Continue once the request has been completed (see onRequestPermissionResult)
+                            return;
+                        }
                     }
                 }
             }
-        }
 
-        init();
+            init();
+        }
     }
 
     private void init() {
+        try (Tracer.Section ignored = Tracer.begin("DummyActivity.init", mTraceId)) {
+            doInit();
+        }
+    }
+
+    private void doInit() {
         Intent intent = getIntent();
 
         // First check if we have a registered request from the same process
@@ -277,6 +302,8 @@ public class DummyActivity extends Activity {
                     .setBoolean(LocalStorageManager.PREF_HAS_SETUP, true);
             LocalStorageManager.getInstance()
                     .setBoolean(LocalStorageManager.PREF_IS_SETTING_UP, false);
+            // The intent filters of the new profile are there now
+            ProfileIntentResolver.getInstance().invalidate();
             Intent intent = new Intent(SetupWizardActivity.ACTION_PROFILE_PROVISIONED);
             intent.setComponent(new ComponentName(this, SetupWizardActivity.class));
             startActivity(intent);
@@ -467,18 +494,16 @@ public class DummyActivity extends Activity {
         // so we just check if we are profile owner here
         if (!mIsProfileOwner) {
             // Forward it to work profile
-            Intent intent = new Intent(UNFREEZE_AND_LAUNCH);
-            Utility.transferIntentToProfile(this, intent);
             String packageName = getIntent().getStringExtra("packageName");
-            intent.putExtra("packageName", packageName);
-            intent.putExtra("shouldFreeze",
-                    SettingsManager.getInstance().getAutoFreezeServiceEnabled() &&
-                            LocalStorageManager.getInstance()
-                                .stringListContains(LocalStorageManager.PREF_AUTO_FREEZE_LIST_WORK_PROFILE, packageName));
+            boolean shouldFreeze = SettingsManager.getInstance().getAutoFreezeServiceEnabled() &&
+                    LocalStorageManager.getInstance()
+                        .stringListContains(LocalStorageManager.PREF_AUTO_FREEZE_LIST_WORK_PROFILE, packageName);
+            String[] packages = null;
+            boolean[] packagesShouldFreeze = null;
             if (getIntent().hasExtra("linkedPackages")) {
                 // Multiple apps should be unfrozen here
-                String[] packages = getIntent().getStringExtra("linkedPackages").split(",");
-                boolean[] packagesShouldFreeze = new boolean[packages.length];
+                packages = getIntent().getStringExtra("linkedPackages").split(",");
+                packagesShouldFreeze = new boolean[packages.length];
 
                 for (int i = 0; i < packages.length; i++) {
                     // Apps in linkedPackages may also need to be auto-frozen
@@ -487,58 +512,59 @@ public class DummyActivity extends Activity {
                             LocalStorageManager.getInstance()
                                     .stringListContains(LocalStorageManager.PREF_AUTO_FREEZE_LIST_WORK_PROFILE, packages[i]);
                 }
-                intent.putExtra("linkedPackages", packages);
-                intent.putExtra("linkedPackagesShouldFreeze", packagesShouldFreeze);
             }
-            startActivity(intent);
-            finish();
-            return;
-        }
-
-        // If we have multiple linked apps to unfreeze before launching the main one
-        if (getIntent().hasExtra("linkedPackages")) {
-            String[] packages = getIntent().getStringArrayExtra("linkedPackages");
-            boolean[] packagesShouldFreeze = getIntent().getBooleanArrayExtra("linkedPackagesShouldFreeze");
-
-            for (int i = 0; i < packages.length; i++) {
-                // Unfreeze everything
-                mPolicyManager.setApplicationHidden(
-                        new ComponentName(this, ShelterDeviceAdminReceiver.class),
-                        packages[i], false);
-                // Register freeze service
-                if (packagesShouldFreeze[i]) {
-                    registerAppToFreeze(packages[i]);
+            ProfileCommand command =
+                    ProfileCommand.unfreezeAndLaunch(packageName, shouldFreeze, packages, packagesShouldFreeze);
+
+            // Over the binder, the app is only unfrozen on the other side;
+            // we are in the foreground, so we start it from here afterwards
+            Handler handler = new Handler(Looper.getMainLooper());
+            Runnable timeout = this::finish;
+            boolean sent = ProfileCommandChannel.trySend(command, new IRunCommandCallback.Stub() {
+                @Override
+                public void callback(boolean done) {
+                    handler.post(() -> {
+                        if (isFinishing()) return;
+                        handler.removeCallbacks(timeout);
+                        if (!done || !launchInWorkProfile(packageName)) {
+                            // Let DummyActivity over there sort it out
+                            ProfileCommandChannel.sendIntent(DummyActivity.this, command);
+                        }
+                        finish();
+                    });
                 }
-            }
-        }
-
-        // Here is the main package to launch
-        String packageName = getIntent().getStringExtra("packageName");
-
-        // Unfreeze the app first
-        mPolicyManager.setApplicationHidden(
-                new ComponentName(this, ShelterDeviceAdminReceiver.class),
-                packageName, false);
+            });
 
-        // Query the start intent
-        Intent launchIntent = getPackageManager().getLaunchIntentForPackage(packageName);
-
-        if (launchIntent != null) {
-            if (getIntent().getBooleanExtra("shouldFreeze", false)) {
-                registerAppToFreeze(packageName);
+            if (sent) {
+                handler.postDelayed(timeout, UNFREEZE_TIMEOUT_MS);
+            } else {
+                ProfileCommandChannel.sendIntent(this, command);
+                finish();
             }
-            startActivity(launchIntent);
-        } else {
-            // Acknowledge the user that the application cannot be launched
-            Toast.makeText(this, getString(R.string.launch_app_fail, packageName), Toast.LENGTH_SHORT).show();
+            return;
         }
 
+        ProfileCommand.fromIntent(getIntent()).execute(this);
         finish();
     }
 
-    private void registerAppToFreeze(String packageName) {
-        FreezeService.registerAppToFreeze(packageName);
-        startService(new Intent(this, FreezeService.class));
+    // Start the main activity of an app in the work profile
+    // Returns false if there is none that we can start
+    private boolean launchInWorkProfile(String packageName) {
+        LauncherApps launcherApps = getSystemService(LauncherApps.class);
+        UserHandle self = Process.myUserHandle();
+        for (UserHandle user : getSystemService(UserManager.class).getUserProfiles()) {
+            if (user.equals(self)) continue;
+            List<LauncherActivityInfo> activities = launcherApps.getActivityList(packageName, user);
+            if (activities.isEmpty()) continue;
+            try {
+                launcherApps.startMainActivity(activities.get(0).getComponentName(), user, null, null);
+                return true;
+            } catch (SecurityException | ActivityNotFoundException e) {
+                return false;
+            }
+        }
+        return false;
     }
 
     private void actionPublicFreezeAll() {
@@ -546,12 +572,9 @@ public class DummyActivity extends Activity {
         // so forward this to DummyActivity in work profile
         // after loading the full list to freeze
         if (!mIsProfileOwner) {
-            Intent intent = new Intent(FREEZE_ALL_IN_LIST);
-            Utility.transferIntentToProfile(this, intent);
             String[] list = LocalStorageManager.getInstance()
                     .getStringList(LocalStorageManager.PREF_AUTO_FREEZE_LIST_WORK_PROFILE);
-            intent.putExtra("list", list);
-            startActivity(intent);
+            ProfileCommandChannel.send(this, ProfileCommand.freezeAllInList(list));
             finish();
         } else {
             throw new RuntimeException("unimplemented");
@@ -560,18 +583,9 @@ public class DummyActivity extends Activity {
 
     private void actionFreezeAllInList() {
         if (mIsProfileOwner) {
-            String[] list = getIntent().getStringArrayExtra("list");
-            for (String pkg : list) {
-                mPolicyManager.setApplicationHidden(
-                        new ComponentName(this, ShelterDeviceAdminReceiver.class),
-                        pkg, true);
-            }
-            stopService(new Intent(this, FreezeService.class)); // Stop the auto-freeze service
-            Toast.makeText(this, R.string.freeze_all_success, Toast.LENGTH_SHORT).show();
-            finish();
-        } else {
-            finish();
+            ProfileCommand.fromIntent(getIntent()).execute(this);
         }
+        finish();
     }
 
     private void actionStartFileShuttle() {
@@ -617,21 +631,7 @@ public class DummyActivity extends Activity {
     }
 
     private void actionSynchronizePreference() {
-        String name = getIntent().getStringExtra("name");
-        if (getIntent().hasExtra("boolean")) {
-            LocalStorageManager.getInstance()
-                    .setBoolean(name, getIntent().getBooleanExtra("boolean", false));
-        } else if (getIntent().hasExtra("int")) {
-            LocalStorageManager.getInstance()
-                    .setInt(name, getIntent().getIntExtra("int", Integer.MIN_VALUE));
-        }
-        // TODO: Cases for other types
-        SettingsManager.getInstance().applyAll();
-        if (mIsProfileOwner) {
-            // Refresh profile policies because
-            // settings may have been changed
-            Utility.enforceWorkProfilePolicies(this);
-        }
+        ProfileCommand.fromIntent(getIntent()).execute(this);
         finish();
     }
 }
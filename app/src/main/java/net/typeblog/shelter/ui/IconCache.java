@@ -0,0 +1,65 @@
+package net.typeblog.shelter.ui;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import net.typeblog.shelter.util.ApplicationInfoWrapper;
+
+// Icons of the app lists, shared by the lists of both profiles and kept
+// across refreshes. Entries are keyed by profile, package name and the
+// version of the package, so that an updated package simply misses and
+// the outdated icon ages out. Bounded by the bytes used by the bitmaps.
+class IconCache {
+    private static IconCache sInstance = null;
+
+    static synchronized IconCache getInstance() {
+        if (sInstance == null) {
+            // Same share of the heap as suggested for bitmap caches in the Android docs
+            sInstance = new IconCache((int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE));
+        }
+        return sInstance;
+    }
+
+    private final int mMaxBytes;
+    private final LruCache<String, Bitmap> mCache;
+
+    private IconCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    static String key(boolean isRemote, ApplicationInfoWrapper app) {
+        return (isRemote ? "w:" : "m:") + app.getPackageName()
+                + ":" + app.getVersionCode() + ":" + app.getLastUpdateTime();
+    }
+
+    Bitmap get(String key) {
+        return mCache.get(key);
+    }
+
+    void put(String key, Bitmap icon) {
+        mCache.put(key, icon);
+    }
+
+    // Give memory back according to how badly the system needs it,
+    // keeping the most recently used icons as long as possible
+    void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            mCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mCache.trimToSize(mMaxBytes / 4);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToSize(mMaxBytes / 2);
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            mCache.trimToSize(mMaxBytes * 3 / 4);
+        }
+    }
+}
@@ -12,6 +12,7 @@ import android.os.RemoteException;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.View;
 import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
@@ -23,7 +24,10 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.SearchView;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import androidx.viewpager2.adapter.FragmentStateAdapter;
 import androidx.viewpager2.widget.ViewPager2;
 
@@ -36,10 +40,14 @@ import net.typeblog.shelter.services.IShelterService;
 import net.typeblog.shelter.services.IStartActivityProxy;
 import net.typeblog.shelter.services.KillerService;
 import net.typeblog.shelter.util.LocalStorageManager;
+import net.typeblog.shelter.util.ProfileCommandChannel;
 import net.typeblog.shelter.util.SettingsManager;
+import net.typeblog.shelter.util.Tracer;
 import net.typeblog.shelter.util.UriForwardProxy;
 import net.typeblog.shelter.util.Utility;
 
+import java.util.ArrayList;
+
 public class MainActivity extends AppCompatActivity {
     public static final String BROADCAST_CONTEXT_MENU_CLOSED = "net.typeblog.shelter.broadcast.CONTEXT_MENU_CLOSED";
     public static final String BROADCAST_SEARCH_FILTER_CHANGED = "net.typeblog.shelter.broadcast.SEARCH_FILTER_CHANGED";
@@ -68,13 +76,29 @@ public class MainActivity extends AppCompatActivity {
     // Two services running in main / work profile
     private IShelterService mServiceMain = null;
     private IShelterService mServiceWork = null;
+    // Both of the above are connected and the view has been built
+    private boolean mServicesReady = false;
+    // Whether the work profile was bound to without TRY_START_SERVICE first
+    private boolean mWorkProbeSkipped = false;
+
+    // Ties together everything done to start up, in both profiles
+    private String mTraceId = null;
+    private long mStartTime = 0;
+    private long mWorkStartTime = 0;
 
     // Show all applications or not
     // default to false
     boolean mShowAll = false;
 
+    // Search across both profiles, shown over the pager
+    private final UnifiedSearch mUnifiedSearch = new UnifiedSearch();
+    private RecyclerView mSearchResults = null;
+    private SearchResultAdapter mSearchResultAdapter = null;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mTraceId = Tracer.newTraceId();
+        mStartTime = Tracer.now();
         EdgeToEdge.enable(this);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
@@ -87,7 +111,9 @@ public class MainActivity extends AppCompatActivity {
             android.util.Log.d("MainActivity", "started in user profile. stopping.");
             finish();
         } else {
-            init();
+            try (Tracer.Section ignored = Tracer.begin("MainActivity.init", mTraceId)) {
+                init();
+            }
         }
 
     }
@@ -100,6 +126,9 @@ public class MainActivity extends AppCompatActivity {
         } else if (!mStorage.getBoolean(LocalStorageManager.PREF_HAS_SETUP)) {
             mStartSetup.launch(null);
         } else {
+            // Start loading the app lists of the last run to show
+            // while the services are being brought up
+            new ViewModelProvider(this).get(AppListRepository.class).load();
             // Initialize the settings
             SettingsManager.getInstance().applyAll();
             // Initialize the app (start by binding the services)
@@ -115,6 +144,8 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void bindServices() {
+        // The service in main profile and the one in work profile are
+        // brought up at the same time; the view is built once both are there.
         // Bind to the service provided by this app in main user
         // The service in main profile doesn't need to be foreground
         // because this activity will hold a ServiceConnection to the service
@@ -122,7 +153,8 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onServiceConnected(ComponentName name, IBinder service) {
                 mServiceMain = IShelterService.Stub.asInterface(service);
-                tryStartWorkService();
+                Tracer.record("MainActivity.bindMain", mTraceId, mStartTime);
+                onServicesConnected();
             }
 
             @Override
@@ -130,6 +162,14 @@ public class MainActivity extends AppCompatActivity {
                 // dummy
             }
         }, false);
+
+        if (Utility.isWorkProfileRunning(this)) {
+            // Work mode is known to be on; no need to probe it first
+            mWorkProbeSkipped = true;
+            bindWorkService();
+        } else {
+            tryStartWorkService();
+        }
     }
 
     private void tryStartWorkService() {
@@ -137,23 +177,30 @@ public class MainActivity extends AppCompatActivity {
         // to determine if work mode is enabled and we CAN start something in that profile.
         // If work mode is disabled when starting this app, we will receive RESULT_CANCELED
         // in the activity result, and we can then prompt the user to enable it
+        mWorkStartTime = Tracer.now();
         Intent intent = new Intent(DummyActivity.TRY_START_SERVICE);
         intent.addFlags(Intent.FLAG_ACTIVITY_NO_ANIMATION);
+        intent.putExtra(Tracer.EXTRA_TRACE_ID, mTraceId);
         try {
             Utility.transferIntentToProfile(this, intent);
         } catch (IllegalStateException e) {
-            // This exception implies a missing work profile, NOT a disabled work profile
-            // which means that the work profile does not even exist
-            // in the first place.
-            mStorage.setBoolean(LocalStorageManager.PREF_HAS_SETUP, false);
-            Toast.makeText(this, getString(R.string.work_profile_not_found), Toast.LENGTH_LONG).show();
-            finish();
+            onWorkProfileNotFound();
             return;
         }
         mTryStartWorkService.launch(intent);
     }
 
+    private void onWorkProfileNotFound() {
+        // This exception implies a missing work profile, NOT a disabled work profile
+        // which means that the work profile does not even exist
+        // in the first place.
+        mStorage.setBoolean(LocalStorageManager.PREF_HAS_SETUP, false);
+        Toast.makeText(this, getString(R.string.work_profile_not_found), Toast.LENGTH_LONG).show();
+        finish();
+    }
+
     private void tryStartWorkServiceCb(ActivityResult result) {
+        Tracer.record("MainActivity.probeWork", mTraceId, mWorkStartTime);
         if (result.getResultCode() == RESULT_OK) {
             // RESULT_OK is from DummyActivity. The work profile is enabled!
             bindWorkService();
@@ -170,9 +217,17 @@ public class MainActivity extends AppCompatActivity {
 
     private void bindWorkService() {
         // Bind to the ShelterService in work profile
+        mWorkStartTime = Tracer.now();
         Intent intent = new Intent(DummyActivity.START_SERVICE);
         intent.addFlags(Intent.FLAG_ACTIVITY_NO_ANIMATION);
-        Utility.transferIntentToProfile(this, intent);
+        intent.putExtra(Tracer.EXTRA_TRACE_ID, mTraceId);
+        try {
+            Utility.transferIntentToProfile(this, intent);
+        } catch (IllegalStateException e) {
+            // Only possible when the probe has been skipped
+            onWorkProfileNotFound();
+            return;
+        }
         mBindWorkService.launch(intent);
     }
 
@@ -181,10 +236,29 @@ public class MainActivity extends AppCompatActivity {
             Bundle extra = result.getData().getBundleExtra("extra");
             IBinder binder = extra.getBinder("service");
             mServiceWork = IShelterService.Stub.asInterface(binder);
+            // Commands for the work profile can go over the binder from now on
+            ProfileCommandChannel.attach(mServiceWork);
+            Tracer.record("MainActivity.bindWork", mTraceId, mWorkStartTime);
+            onServicesConnected();
+        } else if (mWorkProbeSkipped) {
+            // Work mode may have been turned off since we checked;
+            // go the long way round to find out
+            mWorkProbeSkipped = false;
+            tryStartWorkService();
+        }
+    }
+
+    // Called whenever one of the services is connected; continue
+    // only once both of them are, whichever comes first
+    private void onServicesConnected() {
+        if (mServiceMain == null || mServiceWork == null || mServicesReady) return;
+        mServicesReady = true;
+        try (Tracer.Section ignored = Tracer.begin("MainActivity.buildView", mTraceId)) {
             registerStartActivityProxies();
             startKiller();
             buildView();
         }
+        Tracer.record("MainActivity.startup", mTraceId, mStartTime);
     }
 
     private void startKiller() {
@@ -245,6 +319,35 @@ public class MainActivity extends AppCompatActivity {
             }
             return true;
         });
+
+        mSearchResultAdapter = new SearchResultAdapter(getPackageManager().getDefaultActivityIcon());
+        mSearchResultAdapter.setOnResultClickListener((result) -> {
+            // Go to the list of the profile the app is in, which is filtered by the same query
+            mSearchResults.setVisibility(View.GONE);
+            pager.setCurrentItem(result.isRemote ? 1 : 0);
+        });
+        mSearchResults = findViewById(R.id.main_search_results);
+        mSearchResults.setLayoutManager(new LinearLayoutManager(this));
+        mSearchResults.setAdapter(mSearchResultAdapter);
+    }
+
+    UnifiedSearch getUnifiedSearch() {
+        return mUnifiedSearch;
+    }
+
+    private void updateUnifiedSearch(String query) {
+        if (mSearchResultAdapter == null) return;
+
+        if (query.isEmpty()) {
+            mUnifiedSearch.cancel();
+            mSearchResults.setVisibility(View.GONE);
+            mSearchResultAdapter.setResults(new ArrayList<>());
+        } else {
+            mUnifiedSearch.search(query, (results, complete) -> {
+                mSearchResultAdapter.setResults(results);
+                mSearchResults.setVisibility(View.VISIBLE);
+            });
+        }
     }
 
     // Get the service on the other side
@@ -338,12 +441,14 @@ public class MainActivity extends AppCompatActivity {
         // to avoid double-free
         stopService(new Intent(this, KillerService.class));
 
+        ProfileCommandChannel.detach(mServiceWork);
         Utility.killShelterServices(mServiceMain, mServiceWork);
     }
 
     @Override
     public void onTrimMemory(int level) {
         super.onTrimMemory(level);
+        IconCache.getInstance().trimMemory(level);
         if (level >= TRIM_MEMORY_BACKGROUND && mServiceMain != null) {
             // We actually do not need to be in the background at all
             // (except when we are still waiting for provision to finish)
@@ -369,10 +474,12 @@ public class MainActivity extends AppCompatActivity {
 
             @Override
             public boolean onQueryTextChange(String newText) {
+                String query = newText.toLowerCase().trim();
                 Intent intent = new Intent(BROADCAST_SEARCH_FILTER_CHANGED);
-                intent.putExtra("text", newText.toLowerCase().trim());
+                intent.putExtra("text", query);
                 LocalBroadcastManager.getInstance(MainActivity.this)
                         .sendBroadcast(intent);
+                updateUnifiedSearch(query);
                 return true;
             }
         });
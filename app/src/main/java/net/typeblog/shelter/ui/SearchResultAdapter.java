@@ -0,0 +1,99 @@
+package net.typeblog.shelter.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import net.typeblog.shelter.R;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Results of UnifiedSearch, each with a badge of the profile it is in
+// Icons are only taken from IconCache; the app lists load them anyway.
+class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapter.ViewHolder> {
+    interface OnResultClickListener {
+        void onResultClick(UnifiedSearch.Result result);
+    }
+
+    class ViewHolder extends RecyclerView.ViewHolder {
+        private final ImageView mIcon;
+        private final TextView mTitle;
+        private final TextView mPackage;
+        private final ImageView mProfile;
+        private UnifiedSearch.Result mResult = null;
+
+        ViewHolder(View view) {
+            super(view);
+            mIcon = view.findViewById(R.id.search_result_icon);
+            mTitle = view.findViewById(R.id.search_result_title);
+            mPackage = view.findViewById(R.id.search_result_package);
+            mProfile = view.findViewById(R.id.search_result_profile);
+            view.setOnClickListener((v) -> {
+                if (mResult != null && mListener != null) {
+                    mListener.onResultClick(mResult);
+                }
+            });
+        }
+
+        void bind(UnifiedSearch.Result result) {
+            mResult = result;
+            mTitle.setText(result.app.getLabel());
+            mPackage.setText(result.app.getPackageName());
+
+            Bitmap icon = IconCache.getInstance().get(IconCache.key(result.isRemote, result.app));
+            if (icon != null) {
+                mIcon.setImageBitmap(icon);
+            } else {
+                mIcon.setImageDrawable(mDefaultIcon);
+            }
+
+            mProfile.setImageResource(result.isRemote ? R.drawable.ic_work : R.drawable.ic_home);
+            mProfile.setContentDescription(itemView.getContext().getString(
+                    result.isRemote ? R.string.fragment_profile_work : R.string.fragment_profile_main));
+        }
+    }
+
+    private final Drawable mDefaultIcon;
+    private final List<UnifiedSearch.Result> mResults = new ArrayList<>();
+    private OnResultClickListener mListener = null;
+
+    SearchResultAdapter(Drawable defaultIcon) {
+        mDefaultIcon = defaultIcon;
+    }
+
+    void setOnResultClickListener(OnResultClickListener listener) {
+        mListener = listener;
+    }
+
+    void setResults(List<UnifiedSearch.Result> results) {
+        mResults.clear();
+        mResults.addAll(results);
+        notifyDataSetChanged();
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.search_result_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        holder.bind(mResults.get(position));
+    }
+
+    @Override
+    public int getItemCount() {
+        return mResults.size();
+    }
+}
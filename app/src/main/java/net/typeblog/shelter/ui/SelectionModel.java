@@ -0,0 +1,80 @@
+package net.typeblog.shelter.ui;
+
+import net.typeblog.shelter.util.ApplicationInfoWrapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The apps selected in multi-select mode, in the order they were selected.
+// Keyed by package name, so that the selection does not depend on where
+// the apps are in the list, which changes on refresh and search.
+// Membership, selecting and deselecting are O(1); the select order of
+// every app is recomputed at most once after a deselect, then O(1) too.
+class SelectionModel {
+    private final LinkedHashMap<String, ApplicationInfoWrapper> mSelected = new LinkedHashMap<>();
+    // Package name -> 1-based select order
+    private final Map<String, Integer> mOrder = new HashMap<>();
+    private boolean mOrderDirty = false;
+
+    boolean isSelected(String packageName) {
+        return mSelected.containsKey(packageName);
+    }
+
+    boolean isEmpty() {
+        return mSelected.isEmpty();
+    }
+
+    int size() {
+        return mSelected.size();
+    }
+
+    void select(ApplicationInfoWrapper app) {
+        if (mSelected.containsKey(app.getPackageName())) return;
+        mSelected.put(app.getPackageName(), app);
+        if (!mOrderDirty) {
+            mOrder.put(app.getPackageName(), mSelected.size());
+        }
+    }
+
+    void deselect(String packageName) {
+        if (mSelected.remove(packageName) != null) {
+            // Everything selected after it moves up by one
+            mOrderDirty = true;
+        }
+    }
+
+    // Replace the info of a selected app with a newer one, keeping its order
+    void update(ApplicationInfoWrapper app) {
+        if (mSelected.containsKey(app.getPackageName())) {
+            mSelected.put(app.getPackageName(), app);
+        }
+    }
+
+    void clear() {
+        mSelected.clear();
+        mOrder.clear();
+        mOrderDirty = false;
+    }
+
+    // 1-based, or 0 if not selected
+    int getOrder(String packageName) {
+        if (mOrderDirty) {
+            mOrder.clear();
+            int i = 1;
+            for (String pkg : mSelected.keySet()) {
+                mOrder.put(pkg, i++);
+            }
+            mOrderDirty = false;
+        }
+        Integer order = mOrder.get(packageName);
+        return order == null ? 0 : order;
+    }
+
+    // All selected apps in select order, including those filtered out by search
+    List<ApplicationInfoWrapper> getSelected() {
+        return new ArrayList<>(mSelected.values());
+    }
+}
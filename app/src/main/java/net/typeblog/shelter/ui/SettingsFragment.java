@@ -4,12 +4,16 @@ import android.app.ActivityManager;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.RemoteException;
 import android.provider.Settings;
+import android.util.TypedValue;
 import android.view.View;
+import android.widget.ScrollView;
+import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -25,6 +29,7 @@ import androidx.preference.PreferenceFragmentCompat;
 import net.typeblog.shelter.R;
 import net.typeblog.shelter.services.IShelterService;
 import net.typeblog.shelter.util.SettingsManager;
+import net.typeblog.shelter.util.Tracer;
 import net.typeblog.shelter.util.Utility;
 
 import java.util.Arrays;
@@ -35,6 +40,7 @@ public class SettingsFragment extends PreferenceFragmentCompat implements Prefer
     private static final String SETTINGS_TRANSLATE = "settings_translate";
     private static final String SETTINGS_BUG_REPORT = "settings_bug_report";
     private static final String SETTINGS_PATREON = "settings_patreon";
+    private static final String SETTINGS_TIMINGS = "settings_timings";
     private static final String SETTINGS_CROSS_PROFILE_FILE_CHOOSER = "settings_cross_profile_file_chooser";
     private static final String SETTINGS_BLOCK_CONTACTS_SEARCHING = "settings_block_contacts_searching";
     private static final String SETTINGS_AUTO_FREEZE_SERVICE = "settings_auto_freeze_service";
@@ -42,6 +48,8 @@ public class SettingsFragment extends PreferenceFragmentCompat implements Prefer
     private static final String SETTINGS_SKIP_FOREGROUND = "settings_dont_freeze_foreground";
     private static final String SETTINGS_PAYMENT_STUB = "settings_payment_stub";
 
+    private static final float TIMINGS_PADDING_DP = 16;
+
     private static final int[] AUTO_FREEZE_DELAY_SECONDS = new int[]{0, 60, 2 * 60, 5 * 60};
 
     private SettingsManager mManager = SettingsManager.getInstance();
@@ -89,6 +97,8 @@ public class SettingsFragment extends PreferenceFragmentCompat implements Prefer
                 .setOnPreferenceClickListener(this::openSummaryUrl);
         findPreference(SETTINGS_TRANSLATE)
                 .setOnPreferenceClickListener(this::openSummaryUrl);
+        findPreference(SETTINGS_TIMINGS)
+                .setOnPreferenceClickListener(this::showTimings);
 
         // === Interactions ===
         mPrefCrossProfileFileChooser = (CheckBoxPreference) findPreference(SETTINGS_CROSS_PROFILE_FILE_CHOOSER);
@@ -138,10 +148,49 @@ public class SettingsFragment extends PreferenceFragmentCompat implements Prefer
         updateAutoFreezeDelay();
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        // Do not leave changes behind if we are about to go away
+        mManager.flushSyncToProfile();
+    }
+
     private void updateAutoFreezeDelay() {
         mPrefAutoFreezeDelay.setSummary(getString(R.string.format_minutes, mManager.getAutoFreezeDelay() / 60));
     }
 
+    // Timing histograms recorded by Tracer in the processes of both profiles
+    private boolean showTimings(Preference pref) {
+        String work;
+        try {
+            work = mServiceWork.dumpTraces();
+        } catch (RemoteException e) {
+            work = "";
+        }
+        String main = Tracer.dump();
+        String empty = getString(R.string.settings_timings_empty) + "\n";
+
+        TextView text = new TextView(getContext());
+        text.setTypeface(Typeface.MONOSPACE);
+        text.setTextIsSelectable(true);
+        int padding = Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
+                TIMINGS_PADDING_DP, getResources().getDisplayMetrics()));
+        text.setPadding(padding, padding, padding, padding);
+        text.setText("[" + getString(R.string.fragment_profile_main) + "]\n"
+                + (main.isEmpty() ? empty : main) + "\n"
+                + "[" + getString(R.string.fragment_profile_work) + "]\n"
+                + (work.isEmpty() ? empty : work));
+        ScrollView scroll = new ScrollView(getContext());
+        scroll.addView(text);
+
+        new AlertDialog.Builder(getContext())
+                .setTitle(R.string.settings_timings)
+                .setView(scroll)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+        return true;
+    }
+
     private boolean openSummaryUrl(Preference pref) {
         Intent intent = new Intent(Intent.ACTION_VIEW);
         intent.setData(Uri.parse(pref.getSummary().toString()));
@@ -0,0 +1,128 @@
+package net.typeblog.shelter.ui;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import net.typeblog.shelter.util.ApplicationInfoWrapper;
+import net.typeblog.shelter.util.SearchIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Searches the app lists of both profiles at once, from the lists the
+// AppListFragments already hold, so that no call to either ShelterService
+// is needed. Results of the main profile are delivered first, followed by
+// those of the work profile as soon as they are ready.
+// All methods should be called on the main thread.
+class UnifiedSearch {
+    static class Result {
+        final ApplicationInfoWrapper app;
+        final boolean isRemote;
+
+        Result(ApplicationInfoWrapper app, boolean isRemote) {
+            this.app = app;
+            this.isRemote = isRemote;
+        }
+    }
+
+    interface Listener {
+        // complete is false while only some of the profiles have been searched
+        void onResults(List<Result> results, boolean complete);
+    }
+
+    private static final long DEBOUNCE_MS = 150;
+
+    // The list of one profile, and its index once built in the background
+    private static class Source {
+        final List<ApplicationInfoWrapper> apps;
+        // To reuse entries of when building the index
+        final SearchIndex<ApplicationInfoWrapper> previous;
+        volatile SearchIndex<ApplicationInfoWrapper> index = null;
+
+        Source(List<ApplicationInfoWrapper> apps, SearchIndex<ApplicationInfoWrapper> previous) {
+            this.apps = apps;
+            this.previous = previous;
+        }
+
+        SearchIndex<ApplicationInfoWrapper> getIndex() {
+            if (index == null) {
+                index = SearchIndex.build(apps, ApplicationInfoWrapper.SEARCH_FIELDS, previous);
+            }
+            return index;
+        }
+    }
+
+    // [0] = main, [1] = work
+    private final Source[] mSources = new Source[]{
+            new Source(new ArrayList<>(), null),
+            new Source(new ArrayList<>(), null)
+    };
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), (r) -> new Thread(r, "UnifiedSearch"));
+    private Future<?> mTask = null;
+    private Runnable mPending = null;
+    private int mSeq = 0;
+
+    UnifiedSearch() {
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Called by the AppListFragments whenever their list has changed
+    void setApps(boolean isRemote, List<ApplicationInfoWrapper> apps) {
+        int i = isRemote ? 1 : 0;
+        Source old = mSources[i];
+        mSources[i] = new Source(apps, old.index != null ? old.index : old.previous);
+    }
+
+    // Start a search once typing has paused for a moment,
+    // cancelling the one in progress, if any
+    void search(String query, Listener listener) {
+        cancel();
+        int seq = mSeq;
+        mPending = () -> {
+            mPending = null;
+            Source[] sources = mSources.clone();
+            mTask = mExecutor.submit(() -> run(seq, sources, query, listener));
+        };
+        mHandler.postDelayed(mPending, DEBOUNCE_MS);
+    }
+
+    void cancel() {
+        mSeq++;
+        if (mPending != null) {
+            mHandler.removeCallbacks(mPending);
+            mPending = null;
+        }
+        if (mTask != null) {
+            mTask.cancel(true);
+            mTask = null;
+        }
+    }
+
+    // On the background thread
+    private void run(int seq, Source[] sources, String query, Listener listener) {
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < sources.length; i++) {
+            SearchIndex<ApplicationInfoWrapper> index = sources[i].getIndex();
+            if (index == null) return;
+            List<ApplicationInfoWrapper> found = index.search(query);
+            if (found == null) return;
+
+            for (ApplicationInfoWrapper app : found) {
+                results.add(new Result(app, i == 1));
+            }
+            List<Result> snapshot = new ArrayList<>(results);
+            boolean complete = i == sources.length - 1;
+            mHandler.post(() -> {
+                if (seq != mSeq) return;
+                if (complete) mTask = null;
+                listener.onResults(snapshot, complete);
+            });
+        }
+    }
+}
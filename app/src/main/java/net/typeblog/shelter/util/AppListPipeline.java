@@ -0,0 +1,60 @@
+package net.typeblog.shelter.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+// The steps ShelterService takes to turn the installed packages into the
+// app list: filter, wrap, label, sort. Anything Android is behind the
+// small interfaces below, so that this is plain Java and can be
+// benchmarked without a device.
+public class AppListPipeline {
+    // What the pipeline needs to know about an app in the list
+    public interface Item {
+        String getPackageName();
+        String getLabel();
+        boolean isHidden();
+    }
+
+    public interface Filter<C> {
+        boolean shouldShow(C candidate);
+    }
+
+    // Fill in the labels of all the items, blocking until done
+    public interface Labeler<T> {
+        void loadLabels(List<T> items);
+    }
+
+    // Frozen apps last, each part sorted by label
+    public static final Comparator<Item> DISPLAY_ORDER = (x, y) -> {
+        if (x.isHidden() && !y.isHidden()) {
+            return 1;
+        } else if (!x.isHidden() && y.isHidden()) {
+            return -1;
+        } else {
+            return x.getLabel().compareTo(y.getLabel());
+        }
+    };
+
+    // The items to show, without labels (those are expensive to load)
+    public static <C, T extends Item> List<T> filter(List<C> candidates, Filter<? super C> filter,
+                                                     Function<? super C, T> wrap) {
+        List<T> ret = new ArrayList<>();
+        for (C candidate : candidates) {
+            if (filter.shouldShow(candidate)) {
+                ret.add(wrap.apply(candidate));
+            }
+        }
+        return ret;
+    }
+
+    // The complete list, labeled and in display order
+    public static <C, T extends Item> List<T> build(List<C> candidates, Filter<? super C> filter,
+                                                    Function<? super C, T> wrap, Labeler<T> labeler) {
+        List<T> ret = filter(candidates, filter, wrap);
+        labeler.loadLabels(ret);
+        ret.sort(DISPLAY_ORDER);
+        return ret;
+    }
+}
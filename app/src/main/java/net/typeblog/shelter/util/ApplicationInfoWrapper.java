@@ -2,12 +2,18 @@ package net.typeblog.shelter.util;
 
 import android.annotation.TargetApi;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-public class ApplicationInfoWrapper implements Parcelable {
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Comparator;
+
+public class ApplicationInfoWrapper implements Parcelable, AppListPipeline.Item {
     public static final Parcelable.Creator<ApplicationInfoWrapper> CREATOR = new Parcelable.Creator<ApplicationInfoWrapper>() {
         @Override
         public ApplicationInfoWrapper[] newArray(int size) {
@@ -19,13 +25,36 @@ public class ApplicationInfoWrapper implements Parcelable {
             ApplicationInfoWrapper info = new ApplicationInfoWrapper();
             info.mInfo = source.readParcelable(ApplicationInfo.class.getClassLoader());
             info.mLabel = source.readString();
+            info.mLastUpdateTime = source.readLong();
+            info.mVersionCode = source.readLong();
             info.mIsHidden = source.readByte() != 0;
             return info;
         }
     };
 
+    // The order in which apps are shown in the list:
+    // hidden (frozen) apps go last, everything else sorted by label.
+    // Shared by ShelterService and the UI so that sorted pages can be merged.
+    public static final Comparator<ApplicationInfoWrapper> DISPLAY_ORDER = AppListPipeline.DISPLAY_ORDER::compare;
+
+    // Apps are searched by label, and by package name as the key
+    public static final SearchIndex.Fields<ApplicationInfoWrapper> SEARCH_FIELDS =
+            new SearchIndex.Fields<ApplicationInfoWrapper>() {
+                @Override
+                public String getKey(ApplicationInfoWrapper item) {
+                    return item.getPackageName();
+                }
+
+                @Override
+                public String getLabel(ApplicationInfoWrapper item) {
+                    return item.getLabel();
+                }
+            };
+
     private ApplicationInfo mInfo = null;
     private String mLabel = null;
+    private long mLastUpdateTime = 0;
+    private long mVersionCode = 0;
     private boolean mIsHidden = false;
 
     private ApplicationInfoWrapper() {}
@@ -34,11 +63,32 @@ public class ApplicationInfoWrapper implements Parcelable {
         mInfo = info;
     }
 
+    public ApplicationInfoWrapper(PackageInfo info) {
+        mInfo = info.applicationInfo;
+        mLastUpdateTime = info.lastUpdateTime;
+        mVersionCode = getVersionCode(info);
+    }
+
+    @SuppressWarnings("deprecation")
+    public static long getVersionCode(PackageInfo info) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return info.getLongVersionCode();
+        } else {
+            return info.versionCode;
+        }
+    }
+
     public ApplicationInfoWrapper loadLabel(PackageManager pm) {
         mLabel = pm.getApplicationLabel(mInfo).toString();
         return this;
     }
 
+    // Used by LabelCache to fill in a label loaded earlier
+    ApplicationInfoWrapper setLabel(String label) {
+        mLabel = label;
+        return this;
+    }
+
     // Only used from ShelterService
     public ApplicationInfoWrapper setHidden(boolean hidden) {
         mIsHidden = hidden;
@@ -53,6 +103,16 @@ public class ApplicationInfoWrapper implements Parcelable {
         return mLabel;
     }
 
+    // Only available when constructed from a PackageInfo; 0 otherwise
+    public long getLastUpdateTime() {
+        return mLastUpdateTime;
+    }
+
+    // Only available when constructed from a PackageInfo; 0 otherwise
+    public long getVersionCode() {
+        return mVersionCode;
+    }
+
     public String getSourceDir() {
         return mInfo.sourceDir;
     }
@@ -79,10 +139,62 @@ public class ApplicationInfoWrapper implements Parcelable {
         return (mInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
     }
 
+    // A compact form for storing on disk, with only what the app list needs
+    // (the full ApplicationInfo is only meant to be parceled, not persisted)
+    public void writeTo(DataOutputStream os) throws IOException {
+        os.writeUTF(mInfo.packageName);
+        os.writeInt(mInfo.flags);
+        os.writeBoolean(mInfo.enabled);
+        writeNullableString(os, mInfo.sourceDir);
+        String[] splits = mInfo.splitSourceDirs;
+        os.writeInt(splits == null ? -1 : splits.length);
+        if (splits != null) {
+            for (String split : splits) {
+                os.writeUTF(split);
+            }
+        }
+        writeNullableString(os, mLabel);
+        os.writeLong(mLastUpdateTime);
+        os.writeLong(mVersionCode);
+        os.writeBoolean(mIsHidden);
+    }
+
+    public static ApplicationInfoWrapper readFrom(DataInputStream is) throws IOException {
+        ApplicationInfoWrapper app = new ApplicationInfoWrapper();
+        app.mInfo = new ApplicationInfo();
+        app.mInfo.packageName = is.readUTF();
+        app.mInfo.flags = is.readInt();
+        app.mInfo.enabled = is.readBoolean();
+        app.mInfo.sourceDir = readNullableString(is);
+        int splits = is.readInt();
+        if (splits >= 0) {
+            app.mInfo.splitSourceDirs = new String[splits];
+            for (int i = 0; i < splits; i++) {
+                app.mInfo.splitSourceDirs[i] = is.readUTF();
+            }
+        }
+        app.mLabel = readNullableString(is);
+        app.mLastUpdateTime = is.readLong();
+        app.mVersionCode = is.readLong();
+        app.mIsHidden = is.readBoolean();
+        return app;
+    }
+
+    private static void writeNullableString(DataOutputStream os, String str) throws IOException {
+        os.writeBoolean(str != null);
+        if (str != null) os.writeUTF(str);
+    }
+
+    private static String readNullableString(DataInputStream is) throws IOException {
+        return is.readBoolean() ? is.readUTF() : null;
+    }
+
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeParcelable(mInfo, flags);
         dest.writeString(mLabel);
+        dest.writeLong(mLastUpdateTime);
+        dest.writeLong(mVersionCode);
         dest.writeByte((byte) (mIsHidden ? 1 : 0));
     }
 
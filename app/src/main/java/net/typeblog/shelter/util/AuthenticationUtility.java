@@ -2,15 +2,8 @@ package net.typeblog.shelter.util;
 
 import android.content.Intent;
 
-import java.nio.ByteBuffer;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 
-import javax.crypto.KeyGenerator;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
 // Opening access to actions across the profile boundary poses a security risk
 // The risk is that other applications might also be able to start our activities
 // through system's IntentForwarderActivity
@@ -28,13 +21,7 @@ public class AuthenticationUtility {
                 LocalStorageManager.PREF_AUTH_KEY);
         if (key == null) {
             // Generate the key if we don't have one yet
-            try {
-                KeyGenerator keyGen = KeyGenerator.getInstance("HmacSHA256");
-                keyGen.init(256);
-                key = bytesToHex(keyGen.generateKey().getEncoded());
-            } catch (NoSuchAlgorithmException e) {
-                throw new RuntimeException("WTF?");
-            }
+            key = IntentSignature.generateKey();
 
             LocalStorageManager.getInstance().setString(
                     LocalStorageManager.PREF_AUTH_KEY, key);
@@ -44,7 +31,7 @@ public class AuthenticationUtility {
         } else {
             long timestamp = new Date().getTime();
             intent.putExtra("timestamp", timestamp);
-            intent.putExtra("signature", sign(key, timestamp));
+            intent.putExtra("signature", IntentSignature.sign(key, timestamp));
         }
     }
 
@@ -64,61 +51,12 @@ public class AuthenticationUtility {
                 return false;
             }
         } else {
-            long timestamp = new Date().getTime();
-            long intentTimestamp = intent.getLongExtra("timestamp", 0);
-            return timestamp - intentTimestamp < 30 * 1000 &&
-                    sign(key, intentTimestamp).equals(intent.getStringExtra("signature"));
+            return IntentSignature.verify(key, new Date().getTime(),
+                    intent.getLongExtra("timestamp", 0), intent.getStringExtra("signature"));
         }
     }
 
     public static void reset() {
         LocalStorageManager.getInstance().remove(LocalStorageManager.PREF_AUTH_KEY);
     }
-
-    private static String sign(String hexKey, long timestamp) {
-        try {
-            SecretKeySpec keySpec = new SecretKeySpec(hexStringToByteArray(hexKey), "HmacSHA256");
-            Mac mac = Mac.getInstance("HmacSHA256");
-            mac.init(keySpec);
-            return bytesToHex(mac.doFinal(longToBytes(timestamp)));
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            throw new RuntimeException("WTF?");
-        }
-    }
-
-    final private static char[] hexArray = "0123456789ABCDEF".toCharArray();
-    private static String bytesToHex(byte[] bytes) {
-        char[] hexChars = new char[bytes.length * 2];
-        for (int j = 0; j < bytes.length; j++) {
-            int v = bytes[j] & 0xFF;
-            hexChars[j * 2] = hexArray[v >>> 4];
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
-        }
-        return new String(hexChars);
-    }
-
-
-    private static byte[] hexStringToByteArray(String s) {
-        try {
-            int len = s.length();
-            if (len > 1) {
-                byte[] data = new byte[len / 2];
-                for (int i = 0 ; i < len ; i += 2) {
-                    data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
-                            + Character.digit(s.charAt(i + 1), 16));
-                }
-                return data;
-            } else {
-                return null;
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    private static byte[] longToBytes(long x) {
-        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-        buffer.putLong(x);
-        return buffer.array();
-    }
 }
@@ -5,7 +5,6 @@ import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.graphics.Point;
-import android.os.Bundle;
 import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.Looper;
@@ -54,10 +53,7 @@ public class CrossProfileDocumentsProvider extends DocumentsProvider {
     private final Object mLock = new Object();
 
     private void doBindService() {
-        // Call DummyActivity on the other side to bind the service for us
-        Intent intent = new Intent(DummyActivity.START_FILE_SHUTTLE);
-        Bundle extra = new Bundle();
-        extra.putBinder("callback", new IFileShuttleServiceCallback.Stub() {
+        IFileShuttleServiceCallback callback = new IFileShuttleServiceCallback.Stub() {
             @Override
             public void callback(IFileShuttleService service) {
                 mService = service;
@@ -65,25 +61,31 @@ public class CrossProfileDocumentsProvider extends DocumentsProvider {
                     mLock.notifyAll();
                 }
             }
-        });
-        intent.putExtra("extra", extra);
-        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        try {
-            Utility.transferIntentToProfile(getContext(), intent);
-        } catch (IllegalStateException e) {
-            // Try with the other action.
-            // We use distinct intent for parent -> profile and profile -> parent,
-            // to avoid the action chooser dialog
-            // so as a dirty hack here, we just try the other if one is not found.
-            intent.setAction(DummyActivity.START_FILE_SHUTTLE_2);
-            Utility.transferIntentToProfile(getContext(), intent);
+        };
+        // Ask the work profile directly if Shelter is running there
+        ProfileCommand command = ProfileCommand.startFileShuttle(callback);
+        if (!ProfileCommandChannel.trySend(command)) {
+            // Otherwise, call DummyActivity on the other side to bind the service for us
+            Intent intent = command.toIntent();
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            try {
+                Utility.transferIntentToProfile(getContext(), intent);
+            } catch (IllegalStateException e) {
+                // Try with the other action.
+                // We use distinct intent for parent -> profile and profile -> parent,
+                // to avoid the action chooser dialog
+                // so as a dirty hack here, we just try the other if one is not found.
+                intent.setAction(DummyActivity.START_FILE_SHUTTLE_2);
+                Utility.transferIntentToProfile(getContext(), intent);
+            }
+            getContext().startActivity(intent);
         }
-        getContext().startActivity(intent);
 
         // A hack to convert the asynchronous process of starting service to synchronous
         synchronized (mLock) {
             try {
-                mLock.wait();
+                // The binder may have answered already
+                if (mService == null) mLock.wait();
             } catch (InterruptedException e) {
                 // ???
             }
@@ -0,0 +1,95 @@
+package net.typeblog.shelter.util;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+// Path mapping and document metadata of FileShuttleService, i.e. the part
+// of it that runs for every single file shown in the Documents UI.
+// Plain Java, so that it can be benchmarked without a device; the MIME type
+// lookup of the platform is behind MimeTypes.
+public class FileShuttleFiles {
+    // The names of android.provider.DocumentsContract.Document, passed in
+    // by the caller because they cannot be referred to from plain Java
+    public static class DocumentContract {
+        final String columnDocumentId;
+        final String columnDisplayName;
+        final String columnSize;
+        final String columnLastModified;
+        final String columnMimeType;
+        final String columnFlags;
+        final String mimeTypeDir;
+        final int flagSupportsThumbnail;
+        final int flagSupportsDelete;
+        final int flagDirSupportsCreate;
+
+        public DocumentContract(String columnDocumentId, String columnDisplayName, String columnSize,
+                                String columnLastModified, String columnMimeType, String columnFlags,
+                                String mimeTypeDir, int flagSupportsThumbnail, int flagSupportsDelete,
+                                int flagDirSupportsCreate) {
+            this.columnDocumentId = columnDocumentId;
+            this.columnDisplayName = columnDisplayName;
+            this.columnSize = columnSize;
+            this.columnLastModified = columnLastModified;
+            this.columnMimeType = columnMimeType;
+            this.columnFlags = columnFlags;
+            this.mimeTypeDir = mimeTypeDir;
+            this.flagSupportsThumbnail = flagSupportsThumbnail;
+            this.flagSupportsDelete = flagSupportsDelete;
+            this.flagDirSupportsCreate = flagDirSupportsCreate;
+        }
+    }
+
+    public interface MimeTypes {
+        // null if unknown
+        String fromExtension(String extension);
+    }
+
+    // Map a path under the dummy root of CrossProfileDocumentsProvider
+    // to the real one under storageRoot
+    public static String resolvePath(String path, String dummyRoot, String storageRoot) {
+        if (path.startsWith(dummyRoot)) {
+            return storageRoot + path.substring(dummyRoot.length());
+        } else {
+            return path;
+        }
+    }
+
+    public static String getExtension(String filePath) {
+        int index = filePath.lastIndexOf(".");
+        if (index > 0) {
+            return filePath.substring(index + 1);
+        } else {
+            return null;
+        }
+    }
+
+    public static Map<String, Serializable> buildMeta(File f, String displayName, MimeTypes mimeTypes,
+                                                      DocumentContract contract) {
+        String path = f.getAbsolutePath();
+        HashMap<String, Serializable> map = new HashMap<>();
+        map.put(contract.columnDocumentId, path);
+        map.put(contract.columnDisplayName, displayName);
+        map.put(contract.columnSize, f.length());
+        map.put(contract.columnLastModified, f.lastModified());
+
+        if (f.isDirectory()) {
+            map.put(contract.columnMimeType, contract.mimeTypeDir);
+            map.put(contract.columnFlags, contract.flagDirSupportsCreate | contract.flagSupportsDelete);
+        } else {
+            String extension = getExtension(path);
+            String mime = extension != null ? mimeTypes.fromExtension(extension) : null;
+            int flags = contract.flagSupportsDelete;
+            if (mime != null && (mime.startsWith("image/") || mime.startsWith("video/"))) {
+                flags |= contract.flagSupportsThumbnail;
+            }
+            if (mime == null) {
+                mime = "application/unknown";
+            }
+            map.put(contract.columnMimeType, mime);
+            map.put(contract.columnFlags, flags);
+        }
+        return map;
+    }
+}
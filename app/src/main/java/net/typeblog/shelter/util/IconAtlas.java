@@ -0,0 +1,102 @@
+package net.typeblog.shelter.util;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Icons packed into one block of shared memory, so that passing a batch
+// of icons across the profile boundary only costs a file descriptor
+// in the binder transaction instead of a copy of every bitmap.
+// Every icon occupies a square ARGB_8888 slot of the same size, so
+// the slot of the i-th icon simply starts at i * slotBytes(size).
+@TargetApi(Build.VERSION_CODES.O_MR1)
+public class IconAtlas {
+    private static final String KEY_ATLAS = "atlas";
+
+    public static int slotBytes(int size) {
+        return size * size * 4;
+    }
+
+    // Fills the slots of a new atlas one by one, copying each icon
+    // right away so that the bitmap passed in can be reused afterwards
+    public static class Writer {
+        private final int mSize;
+        private final SharedMemory mMem;
+        private final ByteBuffer mBuf;
+        private int mCount = 0;
+
+        // capacity is the maximum number of icons to be added
+        public Writer(int capacity, int size) throws ErrnoException {
+            mSize = size;
+            mMem = SharedMemory.create("shelter-icons", slotBytes(size) * capacity);
+            mBuf = mMem.mapReadWrite();
+        }
+
+        public void add(Bitmap icon) {
+            if (icon.getConfig() != Bitmap.Config.ARGB_8888) {
+                icon = icon.copy(Bitmap.Config.ARGB_8888, false);
+            }
+            if (icon.getWidth() != mSize || icon.getHeight() != mSize) {
+                icon = Bitmap.createScaledBitmap(icon, mSize, mSize, true);
+            }
+            mBuf.position(mCount * slotBytes(mSize));
+            icon.copyPixelsToBuffer(mBuf);
+            mCount++;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        // Put the atlas into a Bundle to be sent. No icon can be added afterwards.
+        // The caller should close() the returned SharedMemory once it has been sent
+        public SharedMemory finish(Bundle out) {
+            SharedMemory.unmap(mBuf);
+            try {
+                // Nobody should write to it after us
+                mMem.setProtect(OsConstants.PROT_READ);
+            } catch (Exception e) {
+                // Only a safety net; the atlas is still usable
+            }
+            out.putParcelable(KEY_ATLAS, mMem);
+            return mMem;
+        }
+
+        // Give up on the atlas without sending it
+        public void abort() {
+            SharedMemory.unmap(mBuf);
+            mMem.close();
+        }
+    }
+
+    // Read count icons back from an atlas received in a Bundle
+    // The shared memory is closed afterwards.
+    public static List<Bitmap> read(Bundle in, int count, int size) throws ErrnoException {
+        SharedMemory mem = in.getParcelable(KEY_ATLAS);
+        List<Bitmap> icons = new ArrayList<>(count);
+        if (mem == null) return icons;
+
+        int slot = slotBytes(size);
+        ByteBuffer buf = mem.mapReadOnly();
+        try {
+            for (int i = 0; i < count; i++) {
+                Bitmap icon = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+                buf.position(i * slot);
+                icon.copyPixelsFromBuffer(buf);
+                icons.add(icon);
+            }
+        } finally {
+            SharedMemory.unmap(buf);
+            mem.close();
+        }
+        return icons;
+    }
+}
@@ -0,0 +1,169 @@
+package net.typeblog.shelter.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Rendered icons, already scaled to the requested size, kept on disk
+// so that an icon only has to be rendered again after its package is updated.
+// Every file holds one icon of one package at one size, tagged with the
+// versionCode and lastUpdateTime it was rendered for; a mismatch counts
+// as a miss. The least recently used files are evicted once the
+// directory grows over MAX_BYTES.
+public class IconDiskCache {
+    private static final String CACHE_DIR = "icons";
+    private static final int CACHE_VERSION = 1;
+    private static final long MAX_BYTES = 16 * 1024 * 1024;
+
+    private final File mDir;
+    // File name -> file size, in access order
+    private Map<String, Long> mIndex = null;
+    private long mTotalBytes = 0;
+
+    public IconDiskCache(Context context) {
+        mDir = new File(context.getCacheDir(), CACHE_DIR);
+    }
+
+    // Returns null if there is no icon rendered for exactly this version of the package
+    public Bitmap get(String packageName, long versionCode, long lastUpdateTime, int size) {
+        File file = new File(mDir, fileName(packageName, size));
+        if (!touch(file.getName())) return null;
+
+        try (DataInputStream is = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (is.readInt() == CACHE_VERSION
+                    && is.readLong() == versionCode
+                    && is.readLong() == lastUpdateTime) {
+                Bitmap icon = BitmapFactory.decodeStream(is);
+                if (icon != null) {
+                    // Keep the access order across restarts, too
+                    file.setLastModified(System.currentTimeMillis());
+                    return icon;
+                }
+            }
+        } catch (IOException e) {
+            // Fall through and drop the file
+        }
+
+        // Outdated or broken
+        delete(file);
+        return null;
+    }
+
+    @SuppressWarnings("deprecation")
+    public void put(String packageName, long versionCode, long lastUpdateTime, int size, Bitmap icon) {
+        ensureIndex();
+
+        File file = new File(mDir, fileName(packageName, size));
+        File tmp = new File(mDir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            os.writeInt(CACHE_VERSION);
+            os.writeLong(versionCode);
+            os.writeLong(lastUpdateTime);
+            // Lossless: these are going to be shown as-is
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                icon.compress(Bitmap.CompressFormat.WEBP_LOSSLESS, 100, os);
+            } else {
+                icon.compress(Bitmap.CompressFormat.WEBP, 100, os);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+            Long old = mIndex.put(file.getName(), file.length());
+            mTotalBytes += file.length() - (old == null ? 0 : old);
+            trim();
+        }
+    }
+
+    // Drop the icons of a package at every size
+    public synchronized void remove(String packageName) {
+        ensureIndex();
+
+        String prefix = packageName + "@";
+        for (String name : new ArrayList<>(mIndex.keySet())) {
+            if (name.startsWith(prefix)) {
+                delete(new File(mDir, name));
+            }
+        }
+    }
+
+    private synchronized boolean touch(String name) {
+        ensureIndex();
+        // get() moves the entry to the end in an access-ordered map
+        return mIndex.get(name) != null;
+    }
+
+    private synchronized void delete(File file) {
+        Long size = mIndex.remove(file.getName());
+        if (size != null) {
+            mTotalBytes -= size;
+        }
+        file.delete();
+    }
+
+    private synchronized void trim() {
+        Iterator<Map.Entry<String, Long>> it = mIndex.entrySet().iterator();
+        while (mTotalBytes > MAX_BYTES && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            mTotalBytes -= eldest.getValue();
+            new File(mDir, eldest.getKey()).delete();
+            it.remove();
+        }
+    }
+
+    // Built lazily so that the directory is never listed on the main thread
+    private synchronized void ensureIndex() {
+        if (mIndex != null) return;
+        mIndex = new LinkedHashMap<>(16, 0.75f, true);
+
+        if (!mDir.exists()) {
+            mDir.mkdirs();
+            return;
+        }
+
+        File[] files = mDir.listFiles();
+        if (files == null) return;
+        // Oldest first, i.e. first to be evicted
+        List<File> sorted = Arrays.asList(files);
+        sorted.sort((x, y) -> Long.compare(x.lastModified(), y.lastModified()));
+        for (File file : sorted) {
+            if (file.getName().endsWith(".tmp")) {
+                // Left over from an interrupted write
+                file.delete();
+                continue;
+            }
+            mIndex.put(file.getName(), file.length());
+            mTotalBytes += file.length();
+        }
+        trim();
+    }
+
+    private static String fileName(String packageName, int size) {
+        // '@' never appears in package names
+        return packageName + "@" + size;
+    }
+}
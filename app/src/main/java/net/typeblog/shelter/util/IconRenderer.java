@@ -0,0 +1,50 @@
+package net.typeblog.shelter.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+
+// Renders icons straight into a square bitmap of the size they will be
+// shown at. Each thread keeps one scratch bitmap and canvas for every size
+// it renders, so rendering a whole list of icons does not allocate a
+// new bitmap per package. All icons are rendered as ARGB_8888, since
+// nearly every launcher icon relies on transparency.
+public class IconRenderer {
+    private static final ThreadLocal<IconRenderer> sRenderers =
+            ThreadLocal.withInitial(IconRenderer::new);
+
+    // The renderer of the calling thread
+    public static IconRenderer get() {
+        return sRenderers.get();
+    }
+
+    private final Canvas mCanvas = new Canvas();
+    private Bitmap mScratch = null;
+
+    private IconRenderer() {}
+
+    // The returned bitmap belongs to this renderer and is overwritten by the
+    // next call on the same thread; use copy() if it has to be kept around.
+    public Bitmap render(Drawable drawable, int size) {
+        if (mScratch == null || mScratch.getWidth() != size) {
+            mScratch = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            mCanvas.setBitmap(mScratch);
+        } else {
+            mScratch.eraseColor(Color.TRANSPARENT);
+        }
+
+        drawable.setBounds(0, 0, size, size);
+        drawable.draw(mCanvas);
+        return mScratch;
+    }
+
+    public boolean isScratch(Bitmap bitmap) {
+        return bitmap == mScratch;
+    }
+
+    // A bitmap that is safe to keep, i.e. never the scratch one
+    public Bitmap copy(Bitmap bitmap) {
+        return isScratch(bitmap) ? bitmap.copy(Bitmap.Config.ARGB_8888, false) : bitmap;
+    }
+}
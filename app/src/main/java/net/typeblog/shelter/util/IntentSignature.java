@@ -0,0 +1,78 @@
+package net.typeblog.shelter.util;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// The HMAC part of AuthenticationUtility, which signs the timestamp
+// of our intents across the profile boundary with the shared key.
+// Plain Java, so that it can be benchmarked without a device.
+public class IntentSignature {
+    // Signatures older than this are refused
+    public static final long MAX_AGE_MS = 30 * 1000;
+
+    public static String generateKey() {
+        try {
+            KeyGenerator keyGen = KeyGenerator.getInstance("HmacSHA256");
+            keyGen.init(256);
+            return bytesToHex(keyGen.generateKey().getEncoded());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("WTF?");
+        }
+    }
+
+    public static String sign(String hexKey, long timestamp) {
+        try {
+            SecretKeySpec keySpec = new SecretKeySpec(hexStringToByteArray(hexKey), "HmacSHA256");
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(keySpec);
+            return bytesToHex(mac.doFinal(longToBytes(timestamp)));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new RuntimeException("WTF?");
+        }
+    }
+
+    // Whether the signature of a timestamp is valid and recent enough at the time `now`
+    public static boolean verify(String hexKey, long now, long timestamp, String signature) {
+        return now - timestamp < MAX_AGE_MS && sign(hexKey, timestamp).equals(signature);
+    }
+
+    final private static char[] hexArray = "0123456789ABCDEF".toCharArray();
+    private static String bytesToHex(byte[] bytes) {
+        char[] hexChars = new char[bytes.length * 2];
+        for (int j = 0; j < bytes.length; j++) {
+            int v = bytes[j] & 0xFF;
+            hexChars[j * 2] = hexArray[v >>> 4];
+            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
+        }
+        return new String(hexChars);
+    }
+
+    private static byte[] hexStringToByteArray(String s) {
+        try {
+            int len = s.length();
+            if (len > 1) {
+                byte[] data = new byte[len / 2];
+                for (int i = 0 ; i < len ; i += 2) {
+                    data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
+                            + Character.digit(s.charAt(i + 1), 16));
+                }
+                return data;
+            } else {
+                return null;
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] longToBytes(long x) {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        buffer.putLong(x);
+        return buffer.array();
+    }
+}
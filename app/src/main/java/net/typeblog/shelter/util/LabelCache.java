@@ -0,0 +1,189 @@
+package net.typeblog.shelter.util;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Loading an application label means loading the resources of its APK,
+// which makes it the most expensive part of building the app list.
+// This cache remembers labels across service restarts, keyed by
+// package name and lastUpdateTime, and is dropped entirely whenever
+// the locale changes. Labels not in the cache are loaded in parallel.
+public class LabelCache {
+    private static final String CACHE_FILE = "label_cache";
+    private static final int CACHE_VERSION = 1;
+    private static final int THREADS =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static class Entry {
+        final long lastUpdateTime;
+        final String label;
+
+        Entry(long lastUpdateTime, String label) {
+            this.lastUpdateTime = lastUpdateTime;
+            this.label = label;
+        }
+    }
+
+    private final Context mContext;
+    private final PackageManager mPackageManager;
+    private final File mFile;
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(
+            THREADS, THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    private String mLocale;
+    private volatile boolean mDirty = false;
+
+    public LabelCache(Context context) {
+        mContext = context;
+        mPackageManager = context.getPackageManager();
+        mFile = new File(context.getCacheDir(), CACHE_FILE);
+        mLocale = currentLocale();
+        mExecutor.allowCoreThreadTimeOut(true);
+        load();
+    }
+
+    // Fill in labels for all the apps passed in, blocking until all are available
+    // (or until interrupted, in which case some may be left without one)
+    public void loadLabels(List<ApplicationInfoWrapper> apps) {
+        checkLocale();
+
+        List<Future<?>> pending = new ArrayList<>();
+        for (ApplicationInfoWrapper app : apps) {
+            Entry entry = mEntries.get(app.getPackageName());
+            if (entry != null && entry.lastUpdateTime == app.getLastUpdateTime()) {
+                app.setLabel(entry.label);
+            } else {
+                pending.add(mExecutor.submit(() -> resolve(app)));
+            }
+        }
+
+        for (Future<?> f : pending) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                // resolve() never throws; nothing we can do here
+            } catch (InterruptedException e) {
+                // Whoever interrupted us does not want to wait any more;
+                // the labels still missing are left as they are
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Fill in only the labels that are cached already, without loading any
+    public void loadCachedLabels(List<ApplicationInfoWrapper> apps) {
+        checkLocale();
+
+        for (ApplicationInfoWrapper app : apps) {
+            Entry entry = mEntries.get(app.getPackageName());
+            if (entry != null && entry.lastUpdateTime == app.getLastUpdateTime()) {
+                app.setLabel(entry.label);
+            }
+        }
+    }
+
+    public void loadLabel(ApplicationInfoWrapper app) {
+        List<ApplicationInfoWrapper> list = new ArrayList<>();
+        list.add(app);
+        loadLabels(list);
+    }
+
+    public void remove(String packageName) {
+        if (mEntries.remove(packageName) != null) {
+            mDirty = true;
+        }
+    }
+
+    // Write the cache back to disk if anything has changed
+    public synchronized void save() {
+        if (!mDirty) return;
+        mDirty = false;
+
+        File tmp = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            os.writeInt(CACHE_VERSION);
+            os.writeUTF(mLocale);
+            // Copy first: the map can be updated while we write
+            List<Map.Entry<String, Entry>> entries = new ArrayList<>(mEntries.entrySet());
+            os.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries) {
+                os.writeUTF(entry.getKey());
+                os.writeLong(entry.getValue().lastUpdateTime);
+                os.writeUTF(entry.getValue().label);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+        }
+    }
+
+    private synchronized void load() {
+        if (!mFile.exists()) return;
+
+        try (DataInputStream is = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (is.readInt() != CACHE_VERSION) return;
+            // Labels cached for another locale are useless
+            if (!mLocale.equals(is.readUTF())) return;
+            int count = is.readInt();
+            for (int i = 0; i < count; i++) {
+                String pkg = is.readUTF();
+                long lastUpdateTime = is.readLong();
+                String label = is.readUTF();
+                mEntries.put(pkg, new Entry(lastUpdateTime, label));
+            }
+        } catch (IOException e) {
+            // A corrupted cache is as good as no cache
+            mEntries.clear();
+        }
+    }
+
+    private synchronized void checkLocale() {
+        String locale = currentLocale();
+        if (!locale.equals(mLocale)) {
+            mLocale = locale;
+            mEntries.clear();
+            mDirty = true;
+        }
+    }
+
+    private void resolve(ApplicationInfoWrapper app) {
+        try {
+            app.loadLabel(mPackageManager);
+        } catch (Exception e) {
+            // Still show something for broken packages
+            app.setLabel(app.getPackageName());
+            return;
+        }
+        mEntries.put(app.getPackageName(), new Entry(app.getLastUpdateTime(), app.getLabel()));
+        mDirty = true;
+    }
+
+    private String currentLocale() {
+        return mContext.getResources().getConfiguration().getLocales().toLanguageTags();
+    }
+}
@@ -3,10 +3,6 @@ package net.typeblog.shelter.util;
 import android.content.Context;
 import android.content.SharedPreferences;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-
 public class LocalStorageManager {
     public static final String PREF_IS_SETTING_UP = "is_setting_up";
     public static final String PREF_HAS_SETUP = "has_setup";
@@ -18,8 +14,11 @@ public class LocalStorageManager {
     public static final String PREF_AUTO_FREEZE_DELAY = "auto_freeze_delay";
     public static final String PREF_BLOCK_CONTACTS_SEARCHING = "block_contacts_searching";
     public static final String PREF_PAYMENT_STUB = "payment_stub";
-
-    private static final String LIST_DIVIDER = ",";
+    // See Utility.reconcileWorkProfilePolicies()
+    public static final String PREF_POLICY_FINGERPRINT = "policy_fingerprint";
+    // Versions of the settings synchronized between profiles, see SettingsManager
+    public static final String PREF_SETTINGS_SENT_VERSION = "settings_sent_version";
+    public static final String PREF_SETTINGS_APPLIED_VERSION = "settings_applied_version";
 
     private static LocalStorageManager sInstance = null;
     private SharedPreferences mPrefs = null;
@@ -61,6 +60,14 @@ public class LocalStorageManager {
         mPrefs.edit().putInt(pref, value).apply();
     }
 
+    public long getLong(String pref) {
+        return mPrefs.getLong(pref, Long.MIN_VALUE);
+    }
+
+    public void setLong(String pref, long value) {
+        mPrefs.edit().putLong(pref, value).apply();
+    }
+
     public String getString(String pref) {
         return mPrefs.getString(pref, null);
     }
@@ -70,30 +77,26 @@ public class LocalStorageManager {
     }
 
     public String[] getStringList(String pref) {
-        return mPrefs.getString(pref, "").split(LIST_DIVIDER);
+        return StringLists.split(mPrefs.getString(pref, ""));
     }
 
     public void setStringList(String pref, String[] list) {
-        mPrefs.edit().putString(pref, Utility.stringJoin(LIST_DIVIDER, list)).apply();
+        mPrefs.edit().putString(pref, StringLists.join(list)).apply();
     }
 
     public boolean stringListContains(String pref, String item) {
-        return Arrays.asList(getStringList(pref)).indexOf(item) >= 0;
+        return StringLists.contains(mPrefs.getString(pref, ""), item);
     }
 
     public void appendStringList(String pref, String newItem) {
-        String str = mPrefs.getString(pref, null);
-        if (str == null) {
-            str = newItem;
-        } else {
-            str += LIST_DIVIDER + newItem;
-        }
-        mPrefs.edit().putString(pref, str).apply();
+        mPrefs.edit().putString(pref, StringLists.append(mPrefs.getString(pref, null), newItem)).apply();
     }
 
     public void removeFromStringList(String pref, String item) {
-        List<String> list = new ArrayList<>(Arrays.asList(getStringList(pref)));
-        list.removeIf(item::equals);
-        setStringList(pref, list.toArray(new String[]{}));
+        String str = mPrefs.getString(pref, "");
+        String updated = StringLists.remove(str, item);
+        if (!updated.equals(str)) {
+            mPrefs.edit().putString(pref, updated).apply();
+        }
     }
 }
@@ -0,0 +1,183 @@
+package net.typeblog.shelter.util;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+
+import net.typeblog.shelter.receivers.ShelterDeviceAdminReceiver;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// An in-process index of per-package state that would otherwise
+// cost one or more binder calls to query every time it is needed.
+// Entries are filled in lazily, dropped on package broadcasts, and
+// the hidden state is updated directly by setHidden(), which is what
+// every freeze / unfreeze in this process should go through.
+//
+// Note that the hidden state can only be queried or changed when
+// we are the profile owner; callers are expected to check that.
+public class PackageStateIndex {
+    public static class State {
+        public final boolean system;
+        public final boolean installed;
+        public final boolean enabled;
+        public final boolean launchable;
+
+        State(boolean system, boolean installed, boolean enabled, boolean launchable) {
+            this.system = system;
+            this.installed = installed;
+            this.enabled = enabled;
+            this.launchable = launchable;
+        }
+    }
+
+    // Called whenever a package has changed, on whichever thread noticed the change
+    public interface Listener {
+        void onPackageChanged(String packageName);
+    }
+
+    private static final int PM_FLAGS =
+            PackageManager.MATCH_DISABLED_COMPONENTS | PackageManager.MATCH_UNINSTALLED_PACKAGES;
+
+    private static PackageStateIndex sInstance = null;
+
+    // Should be called in Application class
+    public static void initialize(Context context) {
+        sInstance = new PackageStateIndex(context.getApplicationContext());
+    }
+
+    public static PackageStateIndex getInstance() {
+        if (sInstance == null) {
+            throw new IllegalStateException("PackageStateIndex must be initialized at start-up");
+        }
+        return sInstance;
+    }
+
+    private final PackageManager mPackageManager;
+    private final DevicePolicyManager mPolicyManager;
+    private final ComponentName mAdminComponent;
+    private final Map<String, State> mStates = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> mHidden = new ConcurrentHashMap<>();
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent.getData() == null) return;
+            invalidate(intent.getData().getSchemeSpecificPart());
+        }
+    };
+
+    private PackageStateIndex(Context context) {
+        mPackageManager = context.getPackageManager();
+        mPolicyManager = context.getSystemService(DevicePolicyManager.class);
+        mAdminComponent = new ComponentName(context, ShelterDeviceAdminReceiver.class);
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, filter);
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    // Get the state of a package whose ApplicationInfo is already at hand
+    public State getState(ApplicationInfo info) {
+        State state = mStates.get(info.packageName);
+        if (state == null) {
+            state = new State(
+                    (info.flags & ApplicationInfo.FLAG_SYSTEM) != 0,
+                    (info.flags & ApplicationInfo.FLAG_INSTALLED) != 0,
+                    info.enabled,
+                    mPackageManager.getLaunchIntentForPackage(info.packageName) != null);
+            mStates.put(info.packageName, state);
+        }
+        return state;
+    }
+
+    // Returns null if the package does not exist at all
+    public State getState(String packageName) {
+        State state = mStates.get(packageName);
+        if (state != null) return state;
+
+        try {
+            return getState(mPackageManager.getApplicationInfo(packageName, PM_FLAGS));
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    public boolean isHidden(String packageName) {
+        Boolean hidden = mHidden.get(packageName);
+        if (hidden == null) {
+            hidden = mPolicyManager.isApplicationHidden(mAdminComponent, packageName);
+            mHidden.put(packageName, hidden);
+        }
+        return hidden;
+    }
+
+    // Freeze or unfreeze a package, skipping the binder call
+    // if it is already known to be in the requested state
+    // Returns whether the package is in the requested state now
+    public boolean setHidden(String packageName, boolean hidden) {
+        return setHidden(packageName, hidden, true);
+    }
+
+    // Without notify, the listeners are not told about the change; for
+    // callers that update whatever depends on the package by themselves
+    public boolean setHidden(String packageName, boolean hidden, boolean notify) {
+        Boolean known = mHidden.get(packageName);
+        if (known != null && known == hidden) return true;
+
+        boolean done;
+        if (mPolicyManager.setApplicationHidden(mAdminComponent, packageName, hidden)) {
+            mHidden.put(packageName, hidden);
+            done = true;
+        } else {
+            // Either it failed or the state was already what we asked for;
+            // only asking again can tell
+            mHidden.remove(packageName);
+            done = isHidden(packageName) == hidden;
+        }
+        // Whether a package can be launched depends on the hidden state, too
+        mStates.remove(packageName);
+        if (notify) {
+            notifyListeners(packageName);
+        }
+        return done;
+    }
+
+    public void invalidate(String packageName) {
+        invalidate(packageName, true);
+    }
+
+    public void invalidate(String packageName, boolean notify) {
+        mStates.remove(packageName);
+        mHidden.remove(packageName);
+        if (notify) {
+            notifyListeners(packageName);
+        }
+    }
+
+    private void notifyListeners(String packageName) {
+        for (Listener listener : mListeners) {
+            listener.onPackageChanged(packageName);
+        }
+    }
+}
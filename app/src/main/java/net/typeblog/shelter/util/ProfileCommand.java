@@ -0,0 +1,310 @@
+package net.typeblog.shelter.util;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.RemoteException;
+import android.widget.Toast;
+
+import androidx.annotation.Nullable;
+
+import net.typeblog.shelter.R;
+import net.typeblog.shelter.ShelterApplication;
+import net.typeblog.shelter.services.FreezeService;
+import net.typeblog.shelter.services.IFileShuttleService;
+import net.typeblog.shelter.services.IFileShuttleServiceCallback;
+import net.typeblog.shelter.ui.DummyActivity;
+
+// An operation to be carried out in the other profile.
+// While Shelter is running, these are sent over the binder of the
+// ShelterService in the work profile (see ProfileCommandChannel);
+// otherwise, they go as an intent to DummyActivity over there, which is
+// the way all of them used to go. Both carry the same extras, and
+// both ends run the command through execute().
+public class ProfileCommand implements Parcelable {
+    public static final int TYPE_SYNCHRONIZE_PREFERENCE = 0;
+    public static final int TYPE_FREEZE_ALL_IN_LIST = 1;
+    public static final int TYPE_UNFREEZE_AND_LAUNCH = 2;
+    public static final int TYPE_START_FILE_SHUTTLE = 3;
+
+    // The DummyActivity action of each of the types above, for the intent
+    private static final String[] ACTIONS = new String[]{
+            DummyActivity.SYNCHRONIZE_PREFERENCE,
+            DummyActivity.FREEZE_ALL_IN_LIST,
+            DummyActivity.UNFREEZE_AND_LAUNCH,
+            DummyActivity.START_FILE_SHUTTLE
+    };
+
+    public static final Parcelable.Creator<ProfileCommand> CREATOR = new Parcelable.Creator<ProfileCommand>() {
+        @Override
+        public ProfileCommand[] newArray(int size) {
+            return new ProfileCommand[size];
+        }
+
+        @Override
+        public ProfileCommand createFromParcel(Parcel source) {
+            int type = source.readInt();
+            String traceId = source.readString();
+            Bundle extras = source.readBundle(ProfileCommand.class.getClassLoader());
+            return new ProfileCommand(type, extras, traceId);
+        }
+    };
+
+    private final int mType;
+    private final Bundle mExtras;
+    @Nullable
+    private final String mTraceId;
+
+    private ProfileCommand(int type, Bundle extras, @Nullable String traceId) {
+        mType = type;
+        mExtras = extras;
+        mTraceId = traceId;
+    }
+
+    private ProfileCommand(int type) {
+        // Part of whatever the sender is doing at the moment
+        this(type, new Bundle(), Tracer.currentTraceId());
+    }
+
+    // A versioned snapshot of all the synchronized settings, see SettingsManager
+    public static ProfileCommand synchronizePreferences(long version, Bundle settings) {
+        ProfileCommand command = new ProfileCommand(TYPE_SYNCHRONIZE_PREFERENCE);
+        command.mExtras.putLong("version", version);
+        command.mExtras.putBundle("settings", settings);
+        return command;
+    }
+
+    public static ProfileCommand freezeAllInList(String[] list) {
+        ProfileCommand command = new ProfileCommand(TYPE_FREEZE_ALL_IN_LIST);
+        command.mExtras.putStringArray("list", list);
+        return command;
+    }
+
+    // linkedPackages are unfrozen along with the package,
+    // and frozen again later where linkedPackagesShouldFreeze says so
+    public static ProfileCommand unfreezeAndLaunch(String packageName, boolean shouldFreeze,
+                                                   @Nullable String[] linkedPackages,
+                                                   @Nullable boolean[] linkedPackagesShouldFreeze) {
+        ProfileCommand command = new ProfileCommand(TYPE_UNFREEZE_AND_LAUNCH);
+        command.mExtras.putString("packageName", packageName);
+        command.mExtras.putBoolean("shouldFreeze", shouldFreeze);
+        if (linkedPackages != null) {
+            command.mExtras.putStringArray("linkedPackages", linkedPackages);
+            command.mExtras.putBooleanArray("linkedPackagesShouldFreeze", linkedPackagesShouldFreeze);
+        }
+        return command;
+    }
+
+    public static ProfileCommand startFileShuttle(IFileShuttleServiceCallback callback) {
+        ProfileCommand command = new ProfileCommand(TYPE_START_FILE_SHUTTLE);
+        Bundle extra = new Bundle();
+        extra.putBinder("callback", callback.asBinder());
+        command.mExtras.putBundle("extra", extra);
+        return command;
+    }
+
+    // The command an intent to DummyActivity carries, or null if it is not one of those
+    @Nullable
+    public static ProfileCommand fromIntent(Intent intent) {
+        String action = intent.getAction();
+        if (DummyActivity.PUBLIC_UNFREEZE_AND_LAUNCH.equals(action)) {
+            // What shortcuts send; the same command, only allowed without a signature
+            action = DummyActivity.UNFREEZE_AND_LAUNCH;
+        }
+        for (int type = 0; type < ACTIONS.length; type++) {
+            if (ACTIONS[type].equals(action)) {
+                Bundle extras = intent.getExtras();
+                return new ProfileCommand(type, extras != null ? extras : new Bundle(),
+                        Tracer.getTraceId(intent));
+            }
+        }
+        return null;
+    }
+
+    // The intent to send when the binder is not available.
+    // This still needs to go through Utility.transferIntentToProfile().
+    public Intent toIntent() {
+        Intent intent = new Intent(ACTIONS[mType]);
+        intent.putExtras(mExtras);
+        if (mTraceId != null) {
+            intent.putExtra(Tracer.EXTRA_TRACE_ID, mTraceId);
+        }
+        return intent;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    // Whether the command cannot be done without an activity, e.g. because
+    // a permission has to be asked for first; the sender should then fall
+    // back to the intent. Cheap enough to be checked before queueing it.
+    public boolean needsActivity(Context context) {
+        if (mType != TYPE_START_FILE_SHUTTLE) return false;
+
+        // The permissions can only be requested by DummyActivity
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return context.checkSelfPermission(Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED;
+        } else {
+            return !Utility.checkAllFileAccessPermission() || !Utility.checkSystemAlertPermission(context);
+        }
+    }
+
+    // Carry out the command in this profile. Returns false if it cannot
+    // be done without an activity (see needsActivity()).
+    // May be called on any thread.
+    public boolean execute(Context context) {
+        if (needsActivity(context)) return false;
+
+        try (Tracer.Section ignored = Tracer.begin("ProfileCommand." + ACTIONS[mType]
+                .substring(ACTIONS[mType].lastIndexOf('.') + 1), mTraceId)) {
+            switch (mType) {
+                case TYPE_SYNCHRONIZE_PREFERENCE:
+                    synchronizePreferences(context);
+                    return true;
+                case TYPE_FREEZE_ALL_IN_LIST:
+                    freezeAllInList(context);
+                    return true;
+                case TYPE_UNFREEZE_AND_LAUNCH:
+                    unfreezeAndLaunch(context);
+                    return true;
+                case TYPE_START_FILE_SHUTTLE:
+                    startFileShuttle(context);
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private void synchronizePreferences(Context context) {
+        Bundle settings = mExtras.getBundle("settings");
+        if (settings == null || !SettingsManager.getInstance()
+                .applySettingsSnapshot(mExtras.getLong("version"), settings)) {
+            // Nothing new
+            return;
+        }
+
+        if (context.getSystemService(DevicePolicyManager.class).isProfileOwnerApp(context.getPackageName())) {
+            // Refresh profile policies (and settings) if the
+            // settings they depend on have been changed
+            Utility.reconcileWorkProfilePolicies(context, false);
+        } else {
+            SettingsManager.getInstance().applyAll();
+        }
+    }
+
+    private void freezeAllInList(Context context) {
+        String[] list = mExtras.getStringArray("list");
+        if (list != null) {
+            PackageStateIndex packageStates = PackageStateIndex.getInstance();
+            for (String pkg : list) {
+                // Apps already known to be frozen are skipped by the index
+                packageStates.setHidden(pkg, true);
+            }
+        }
+        context.stopService(new Intent(context, FreezeService.class)); // Stop the auto-freeze service
+        showToast(context, context.getString(R.string.freeze_all_success));
+    }
+
+    private void unfreezeAndLaunch(Context context) {
+        PackageStateIndex packageStates = PackageStateIndex.getInstance();
+
+        // If we have multiple linked apps to unfreeze before launching the main one
+        String[] packages = mExtras.getStringArray("linkedPackages");
+        boolean[] packagesShouldFreeze = mExtras.getBooleanArray("linkedPackagesShouldFreeze");
+        if (packages != null && packagesShouldFreeze != null) {
+            for (int i = 0; i < packages.length; i++) {
+                // Unfreeze everything
+                packageStates.setHidden(packages[i], false);
+                // Register freeze service
+                if (packagesShouldFreeze[i]) {
+                    registerAppToFreeze(context, packages[i]);
+                }
+            }
+        }
+
+        // Here is the main package to launch
+        String packageName = mExtras.getString("packageName");
+
+        // Unfreeze the app first
+        packageStates.setHidden(packageName, false);
+
+        // Query the start intent
+        Intent launchIntent = context.getPackageManager().getLaunchIntentForPackage(packageName);
+
+        if (launchIntent != null) {
+            if (mExtras.getBoolean("shouldFreeze", false)) {
+                registerAppToFreeze(context, packageName);
+            }
+            // Only DummyActivity may start the app here. ShelterService runs in the
+            // background, and a profile owner is not exempt from the restrictions on
+            // starting activities from the background (only device owners and
+            // affiliated profile owners are), so when the command came over the
+            // binder, the sender starts the app through LauncherApps instead.
+            if (context instanceof Activity) {
+                context.startActivity(launchIntent);
+            }
+        } else if (context instanceof Activity) {
+            // Acknowledge the user that the application cannot be launched
+            showToast(context, context.getString(R.string.launch_app_fail, packageName));
+        }
+    }
+
+    private static void registerAppToFreeze(Context context, String packageName) {
+        FreezeService.registerAppToFreeze(packageName);
+        context.startService(new Intent(context, FreezeService.class));
+    }
+
+    private void startFileShuttle(Context context) {
+        IFileShuttleServiceCallback callback = IFileShuttleServiceCallback.Stub.asInterface(
+                mExtras.getBundle("extra").getBinder("callback"));
+        ((ShelterApplication) context.getApplicationContext()).bindFileShuttleService(new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder service) {
+                try {
+                    callback.callback(IFileShuttleService.Stub.asInterface(service));
+                } catch (RemoteException e) {
+                    // Do Nothing
+                }
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {
+                // Do Nothing
+            }
+        });
+    }
+
+    private static void showToast(Context context, String text) {
+        // Commands sent over the binder run on a worker of ShelterService,
+        // and DummyActivity will have finished by the time this is shown
+        Context appContext = context.getApplicationContext();
+        new Handler(Looper.getMainLooper()).post(() ->
+                Toast.makeText(appContext, text, Toast.LENGTH_SHORT).show());
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mType);
+        dest.writeString(mTraceId);
+        dest.writeBundle(mExtras);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+}
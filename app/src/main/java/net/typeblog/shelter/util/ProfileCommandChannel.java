@@ -0,0 +1,72 @@
+package net.typeblog.shelter.util;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.os.RemoteException;
+
+import androidx.annotation.Nullable;
+
+import net.typeblog.shelter.services.IRunCommandCallback;
+import net.typeblog.shelter.services.IShelterService;
+
+// Sends ProfileCommands from the main profile to the work profile.
+// While MainActivity holds the ShelterService of the work profile, they
+// go over its binder, which is a binder call instead of the launch of
+// DummyActivity over there (and all it does on every start).
+// Otherwise, e.g. when started from a shortcut with Shelter not running,
+// the intent to DummyActivity is still what gets the work profile going.
+public class ProfileCommandChannel {
+    private static volatile IShelterService sWorkService = null;
+
+    public static void attach(IShelterService service) {
+        sWorkService = service;
+    }
+
+    public static void detach(IShelterService service) {
+        if (service != null && sWorkService != null
+                && sWorkService.asBinder() == service.asBinder()) {
+            sWorkService = null;
+        }
+    }
+
+    // Send over the binder if possible, and start DummyActivity in the
+    // work profile otherwise. The latter may throw IllegalStateException
+    // like Utility.transferIntentToProfile() if there is no work profile.
+    public static void send(Context context, ProfileCommand command) {
+        if (!trySend(command)) {
+            sendIntent(context, command);
+        }
+    }
+
+    // Only as the intent to DummyActivity
+    public static void sendIntent(Context context, ProfileCommand command) {
+        Intent intent = command.toIntent();
+        if (!(context instanceof Activity)) {
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        }
+        Utility.transferIntentToProfile(context, intent);
+        context.startActivity(intent);
+    }
+
+    // Only over the binder; returns false if that was not possible
+    public static boolean trySend(ProfileCommand command) {
+        return trySend(command, null);
+    }
+
+    // The command is only queued by the other side when this returns true;
+    // the callback, if any, is told once it has been carried out
+    public static boolean trySend(ProfileCommand command, @Nullable IRunCommandCallback callback) {
+        IShelterService service = sWorkService;
+        if (service == null) return false;
+
+        try (Tracer.Section ignored = Tracer.begin("ProfileCommandChannel.send")) {
+            return service.runCommand(command, callback);
+        } catch (RemoteException e) {
+            // The work profile has gone away (e.g. work mode turned off)
+            // Keep to the intent until MainActivity gets a new binder
+            detach(service);
+            return false;
+        }
+    }
+}
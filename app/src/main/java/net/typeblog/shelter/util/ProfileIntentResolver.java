@@ -0,0 +1,138 @@
+package net.typeblog.shelter.util;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ResolveInfo;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Remembers where Utility.transferIntentToProfile() sends each action,
+// i.e. to the activity of the system that forwards it to the other
+// profile, or that there is no such activity because the other profile
+// is not there, so that not every hop across the profile boundary has to
+// query the PackageManager.
+// Everything is forgotten whenever packages or profiles change.
+public class ProfileIntentResolver {
+    // The intent filters of a new profile are only added at the end of
+    // provisioning, which no broadcast tells us about, so the profile
+    // being missing is only believed for a short while
+    private static final long NOT_FOUND_TIMEOUT_MS = 5000;
+
+    private static class Entry {
+        @Nullable
+        final ComponentName component;
+        final long time;
+
+        Entry(@Nullable ComponentName component) {
+            this.component = component;
+            this.time = SystemClock.elapsedRealtime();
+        }
+
+        boolean isValid() {
+            return component != null || SystemClock.elapsedRealtime() - time < NOT_FOUND_TIMEOUT_MS;
+        }
+    }
+
+    private static ProfileIntentResolver sInstance = null;
+
+    // Should be called in Application class
+    public static void initialize(Context context) {
+        sInstance = new ProfileIntentResolver(context.getApplicationContext());
+    }
+
+    public static ProfileIntentResolver getInstance() {
+        if (sInstance == null) {
+            throw new IllegalStateException("ProfileIntentResolver must be initialized at start-up");
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+    // Action -> where to send it
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+    // Bumped on every invalidation, so that a query that was running
+    // at the time does not put its outdated result back
+    private final AtomicInteger mGeneration = new AtomicInteger(0);
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+        }
+    };
+
+    private ProfileIntentResolver(Context context) {
+        mContext = context;
+
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addDataScheme("package");
+        context.registerReceiver(mReceiver, packageFilter);
+
+        // Only sent to the parent profile
+        IntentFilter profileFilter = new IntentFilter();
+        profileFilter.addAction(Intent.ACTION_MANAGED_PROFILE_ADDED);
+        profileFilter.addAction(Intent.ACTION_MANAGED_PROFILE_REMOVED);
+        profileFilter.addAction(Intent.ACTION_MANAGED_PROFILE_AVAILABLE);
+        profileFilter.addAction(Intent.ACTION_MANAGED_PROFILE_UNAVAILABLE);
+        profileFilter.addAction(Intent.ACTION_MANAGED_PROFILE_UNLOCKED);
+        context.registerReceiver(mReceiver, profileFilter);
+    }
+
+    // The activity in the other profile to send the intent to,
+    // or null if there is none
+    @Nullable
+    public ComponentName resolve(Intent intent) {
+        String action = cacheKey(intent);
+        if (action == null) return query(intent);
+
+        Entry entry = mEntries.get(action);
+        if (entry != null && entry.isValid()) return entry.component;
+
+        int generation = mGeneration.get();
+        ComponentName component = query(intent);
+        if (mGeneration.get() == generation) {
+            mEntries.put(action, new Entry(component));
+        }
+        return component;
+    }
+
+    public void invalidate() {
+        mGeneration.incrementAndGet();
+        mEntries.clear();
+    }
+
+    // Only intents that are resolved by their action alone are cached,
+    // which is what all of our own intents to the other profile are
+    @Nullable
+    private static String cacheKey(Intent intent) {
+        if (intent.getAction() == null || intent.getData() != null || intent.getType() != null
+                || intent.getCategories() != null || intent.getComponent() != null
+                || intent.getPackage() != null) {
+            return null;
+        }
+        return intent.getAction();
+    }
+
+    @Nullable
+    private ComponentName query(Intent intent) {
+        List<ResolveInfo> info = mContext.getPackageManager().queryIntentActivities(intent, 0);
+        for (ResolveInfo r : info) {
+            if (!r.activityInfo.packageName.equals(mContext.getPackageName())) {
+                return new ComponentName(r.activityInfo.packageName, r.activityInfo.name);
+            }
+        }
+        return null;
+    }
+}
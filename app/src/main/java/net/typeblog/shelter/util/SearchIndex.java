@@ -0,0 +1,143 @@
+package net.typeblog.shelter.util;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// A search index over one snapshot of a list, with the label and key
+// (package name) of every item normalized once up front: lowercased,
+// with accents stripped, and with the start of every word recorded.
+// Results are ranked, and keep the order of the list within each rank:
+//   1. the label starts with the query
+//   2. a word in the label starts with the query
+//   3. the key, or a segment of it, starts with the query
+//   4. the query appears anywhere in the label or the key
+// This is plain Java and may be used from any thread; building and
+// searching check for interruption so that stale queries can be cancelled.
+public class SearchIndex<T> {
+    public interface Fields<T> {
+        String getKey(T item);
+        String getLabel(T item);
+    }
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final int RANKS = 4;
+    // How often to check for interruption, in items
+    private static final int CHECK_INTERVAL = 256;
+
+    private static class Entry {
+        final String rawLabel;
+        final String label;
+        final int[] labelWords;
+        final String key;
+        final int[] keyWords;
+
+        Entry(String rawLabel, String rawKey) {
+            this.rawLabel = rawLabel;
+            this.label = normalize(rawLabel);
+            this.labelWords = wordStarts(label);
+            this.key = normalize(rawKey);
+            this.keyWords = wordStarts(key);
+        }
+
+        // Returns the rank of the match, or -1 if it does not match
+        int match(String query) {
+            if (label.startsWith(query)) return 0;
+            for (int start : labelWords) {
+                if (label.startsWith(query, start)) return 1;
+            }
+            if (key.startsWith(query)) return 2;
+            for (int start : keyWords) {
+                if (key.startsWith(query, start)) return 2;
+            }
+            if (label.contains(query) || key.contains(query)) return 3;
+            return -1;
+        }
+    }
+
+    private final List<T> mItems;
+    private final Entry[] mEntries;
+    private final Map<String, Entry> mEntriesByKey;
+
+    private SearchIndex(List<T> items, Entry[] entries, Map<String, Entry> entriesByKey) {
+        mItems = items;
+        mEntries = entries;
+        mEntriesByKey = entriesByKey;
+    }
+
+    // Build the index of a list; entries of the previous index (if any)
+    // are reused for items whose key and label have not changed.
+    // Returns null if the thread has been interrupted.
+    public static <T> SearchIndex<T> build(List<T> items, Fields<T> fields, SearchIndex<T> previous) {
+        Entry[] entries = new Entry[items.size()];
+        Map<String, Entry> byKey = new HashMap<>(items.size() * 2);
+        for (int i = 0; i < entries.length; i++) {
+            if (i % CHECK_INTERVAL == 0 && Thread.currentThread().isInterrupted()) return null;
+
+            T item = items.get(i);
+            String key = fields.getKey(item);
+            String label = fields.getLabel(item);
+            if (label == null) label = key;
+            Entry entry = previous != null ? previous.mEntriesByKey.get(key) : null;
+            if (entry == null || !entry.rawLabel.equals(label)) {
+                entry = new Entry(label, key);
+            }
+            entries[i] = entry;
+            byKey.put(key, entry);
+        }
+        return new SearchIndex<>(items, entries, byKey);
+    }
+
+    public List<T> getItems() {
+        return mItems;
+    }
+
+    // Returns null if the thread has been interrupted
+    public List<T> search(String query) {
+        String q = normalize(query).trim();
+        if (q.isEmpty()) return new ArrayList<>(mItems);
+
+        List<List<T>> ranks = new ArrayList<>(RANKS);
+        for (int i = 0; i < RANKS; i++) {
+            ranks.add(new ArrayList<>());
+        }
+        for (int i = 0; i < mEntries.length; i++) {
+            if (i % CHECK_INTERVAL == 0 && Thread.currentThread().isInterrupted()) return null;
+
+            int rank = mEntries[i].match(q);
+            if (rank >= 0) {
+                ranks.get(rank).add(mItems.get(i));
+            }
+        }
+
+        List<T> result = new ArrayList<>();
+        for (List<T> rank : ranks) {
+            result.addAll(rank);
+        }
+        return result;
+    }
+
+    public static String normalize(String str) {
+        String decomposed = Normalizer.normalize(str, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    // Offsets of all words after the first one; words are runs of letters or digits
+    private static int[] wordStarts(String str) {
+        List<Integer> starts = new ArrayList<>();
+        for (int i = 1; i < str.length(); i++) {
+            if (Character.isLetterOrDigit(str.charAt(i)) && !Character.isLetterOrDigit(str.charAt(i - 1))) {
+                starts.add(i);
+            }
+        }
+        int[] ret = new int[starts.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = starts.get(i);
+        }
+        return ret;
+    }
+}
@@ -2,11 +2,14 @@ package net.typeblog.shelter.util;
 
 import android.content.ComponentName;
 import android.content.Context;
-import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 
 import net.typeblog.shelter.services.PaymentStubService;
-import net.typeblog.shelter.ui.DummyActivity;
+
+import java.util.Arrays;
 
 public class SettingsManager {
     private static SettingsManager sInstance = null;
@@ -26,22 +29,101 @@ public class SettingsManager {
         mContext = context;
     }
 
-    private void syncSettingsToProfileBool(String name, boolean value) {
-        Intent intent = new Intent(DummyActivity.SYNCHRONIZE_PREFERENCE);
-        intent.putExtra("name", name);
-        intent.putExtra("boolean", value);
-        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        Utility.transferIntentToProfile(mContext, intent);
-        mContext.startActivity(intent);
+    // Changes made in quick succession are sent to the other profile together
+    private static final long SYNC_DELAY_MS = 500;
+
+    // The settings that are synchronized to the other profile, by type
+    private static final String[] SYNC_BOOLEANS = new String[]{
+            LocalStorageManager.PREF_CROSS_PROFILE_FILE_CHOOSER,
+            LocalStorageManager.PREF_BLOCK_CONTACTS_SEARCHING,
+            LocalStorageManager.PREF_DONT_FREEZE_FOREGROUND
+    };
+    private static final String[] SYNC_INTS = new String[]{
+            LocalStorageManager.PREF_AUTO_FREEZE_DELAY
+    };
+    private static final String[] SYNC_STRING_LISTS = new String[]{
+            LocalStorageManager.PREF_AUTO_FREEZE_LIST_WORK_PROFILE
+    };
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mSyncTask = this::flushSyncToProfile;
+    // Only touched on the main thread
+    private boolean mSyncPending = false;
+
+    // Send all the synchronized settings to the other profile in a moment,
+    // along with whatever else changes until then.
+    // Must be called on the main thread.
+    public void syncSettingsToProfile() {
+        mSyncPending = true;
+        mHandler.removeCallbacks(mSyncTask);
+        mHandler.postDelayed(mSyncTask, SYNC_DELAY_MS);
+    }
+
+    // Send what syncSettingsToProfile() is waiting to send right now, if anything.
+    // Must be called on the main thread.
+    public void flushSyncToProfile() {
+        mHandler.removeCallbacks(mSyncTask);
+        if (!mSyncPending) return;
+        mSyncPending = false;
+
+        // Newer than anything sent before, even if the clock has gone back
+        long version = Math.max(System.currentTimeMillis(),
+                mStorage.getLong(LocalStorageManager.PREF_SETTINGS_SENT_VERSION) + 1);
+        mStorage.setLong(LocalStorageManager.PREF_SETTINGS_SENT_VERSION, version);
+        try {
+            ProfileCommandChannel.send(mContext, ProfileCommand.synchronizePreferences(version, buildSettingsSnapshot()));
+        } catch (IllegalStateException e) {
+            // There is no other profile to send them to (yet)
+        }
     }
 
-    private void syncSettingsToProfileInt(String name, int value) {
-        Intent intent = new Intent(DummyActivity.SYNCHRONIZE_PREFERENCE);
-        intent.putExtra("name", name);
-        intent.putExtra("int", value);
-        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        Utility.transferIntentToProfile(mContext, intent);
-        mContext.startActivity(intent);
+    // All the synchronized settings, typed
+    private Bundle buildSettingsSnapshot() {
+        Bundle settings = new Bundle();
+        for (String name : SYNC_BOOLEANS) {
+            settings.putBoolean(name, mStorage.getBoolean(name));
+        }
+        for (String name : SYNC_INTS) {
+            int value = mStorage.getInt(name);
+            // Leave out what has never been set, so that the default applies on both sides
+            if (value != Integer.MIN_VALUE) {
+                settings.putInt(name, value);
+            }
+        }
+        for (String name : SYNC_STRING_LISTS) {
+            settings.putStringArray(name, mStorage.getStringList(name));
+        }
+        return settings;
+    }
+
+    // Take over the settings from the other profile, unless something newer
+    // has been received already. Only the ones that differ are written.
+    // Returns whether anything has changed.
+    public synchronized boolean applySettingsSnapshot(long version, Bundle settings) {
+        if (version <= mStorage.getLong(LocalStorageManager.PREF_SETTINGS_APPLIED_VERSION)) return false;
+        mStorage.setLong(LocalStorageManager.PREF_SETTINGS_APPLIED_VERSION, version);
+
+        boolean changed = false;
+        for (String name : SYNC_BOOLEANS) {
+            if (settings.containsKey(name) && settings.getBoolean(name) != mStorage.getBoolean(name)) {
+                mStorage.setBoolean(name, settings.getBoolean(name));
+                changed = true;
+            }
+        }
+        for (String name : SYNC_INTS) {
+            if (settings.containsKey(name) && settings.getInt(name) != mStorage.getInt(name)) {
+                mStorage.setInt(name, settings.getInt(name));
+                changed = true;
+            }
+        }
+        for (String name : SYNC_STRING_LISTS) {
+            String[] list = settings.getStringArray(name);
+            if (list != null && !Arrays.equals(list, mStorage.getStringList(name))) {
+                mStorage.setStringList(name, list);
+                changed = true;
+            }
+        }
+        return changed;
     }
 
     // Enforce all settings
@@ -63,7 +145,7 @@ public class SettingsManager {
     public void setCrossProfileFileChooserEnabled(boolean enabled) {
         mStorage.setBoolean(LocalStorageManager.PREF_CROSS_PROFILE_FILE_CHOOSER, enabled);
         applyCrossProfileFileChooser();
-        syncSettingsToProfileBool(LocalStorageManager.PREF_CROSS_PROFILE_FILE_CHOOSER, enabled);
+        syncSettingsToProfile();
     }
 
     // Get the enabled state of the cross profile file chooser
@@ -74,7 +156,7 @@ public class SettingsManager {
     // Set the blocked state of cross-profile contacts searching
     public void setBlockContactsSearchingEnabled(boolean enabled) {
         mStorage.setBoolean(LocalStorageManager.PREF_BLOCK_CONTACTS_SEARCHING, enabled);
-        syncSettingsToProfileBool(LocalStorageManager.PREF_BLOCK_CONTACTS_SEARCHING, enabled);
+        syncSettingsToProfile();
     }
 
     // Get the blocked state of cross-profile contacts searching
@@ -96,7 +178,7 @@ public class SettingsManager {
     // Set the delay for auto freeze service (in seconds)
     public void setAutoFreezeDelay(int seconds) {
         mStorage.setInt(LocalStorageManager.PREF_AUTO_FREEZE_DELAY, seconds);
-        syncSettingsToProfileInt(LocalStorageManager.PREF_AUTO_FREEZE_DELAY, seconds);
+        syncSettingsToProfile();
     }
 
     // Get the delay for auto freeze service
@@ -112,7 +194,7 @@ public class SettingsManager {
     // Set the enabled state of "skip foreground"
     public void setSkipForegroundEnabled(boolean enabled) {
         mStorage.setBoolean(LocalStorageManager.PREF_DONT_FREEZE_FOREGROUND, enabled);
-        syncSettingsToProfileBool(LocalStorageManager.PREF_DONT_FREEZE_FOREGROUND, enabled);
+        syncSettingsToProfile();
     }
 
     // Get the enabled state of "skip foreground"
@@ -0,0 +1,59 @@
+package net.typeblog.shelter.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The string lists of LocalStorageManager, stored as one string with the
+// items separated by LIST_DIVIDER. This works on the stored string only
+// and is plain Java, so that it can be benchmarked without a device.
+// An empty stored string is a list with one empty item, as it has always been.
+public class StringLists {
+    public static final String LIST_DIVIDER = ",";
+
+    public static String[] split(String stored) {
+        return stored.split(LIST_DIVIDER);
+    }
+
+    public static String join(String[] list) {
+        if (list.length == 0) return "";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < list.length; i++) {
+            if (i > 0) sb.append(LIST_DIVIDER);
+            sb.append(list[i]);
+        }
+        return sb.toString();
+    }
+
+    // Without splitting the stored string
+    public static boolean contains(String stored, String item) {
+        // split() drops trailing empty items; let it decide for those
+        if (item.isEmpty()) return Arrays.asList(split(stored)).contains(item);
+        int from = 0;
+        while (true) {
+            int index = stored.indexOf(item, from);
+            if (index < 0) return false;
+            int end = index + item.length();
+            if ((index == 0 || stored.startsWith(LIST_DIVIDER, index - LIST_DIVIDER.length()))
+                    && (end == stored.length() || stored.startsWith(LIST_DIVIDER, end))) {
+                return true;
+            }
+            from = index + 1;
+        }
+    }
+
+    // stored may be null for a list that has never been written
+    public static String append(String stored, String item) {
+        return stored == null ? item : stored + LIST_DIVIDER + item;
+    }
+
+    // Returns the stored string unchanged if the item is not in the list
+    public static String remove(String stored, String item) {
+        if (!contains(stored, item)) return stored;
+        List<String> list = new ArrayList<>();
+        for (String it : split(stored)) {
+            if (!item.equals(it)) list.add(it);
+        }
+        return join(list.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,214 @@
+package net.typeblog.shelter.util;
+
+import android.content.Intent;
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Named timing sections, shown in systrace / Perfetto under their plain name
+// so that all runs of a section group together (on Android 10 and later,
+// an async slice of the same name carries the trace ID as its cookie),
+// and also kept as histograms in memory, so that they can be looked at
+// from within the app (see SettingsFragment) without an external profiler.
+//
+// Every section carries a trace ID that ties together everything done
+// for one user action. The ID of the innermost open section is the
+// current ID of the thread; new sections on the same thread join it, and
+// Utility.transferIntentToProfile() passes it on to the other profile
+// as an extra, where DummyActivity picks it up again.
+// Sections must be closed on the thread they were opened on; for spans
+// across callbacks, use record() with the start time from now().
+public class Tracer {
+    public static final String EXTRA_TRACE_ID = "trace_id";
+
+    // Upper bounds of the histogram buckets, in milliseconds;
+    // there is one more bucket for everything above the last one
+    private static final long[] BUCKETS_MS = new long[]{1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+    private static final int RECENT_SAMPLES = 5;
+    private static final int HISTOGRAM_WIDTH = 20;
+    // The limit of android.os.Trace
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+    public static class Section implements AutoCloseable {
+        private final String mName;
+        private final String mTraceId;
+        private final String mPreviousId;
+        private final long mStart;
+        private final String mSectionName;
+        private final int mCookie;
+
+        private Section(String name, String traceId) {
+            mName = name;
+            mTraceId = traceId;
+            mPreviousId = sCurrentId.get();
+            mStart = now();
+            mSectionName = sectionName(name);
+            mCookie = cookie(traceId);
+            sCurrentId.set(traceId);
+            Trace.beginSection(mSectionName);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.beginAsyncSection(mSectionName, mCookie);
+            }
+        }
+
+        public String getTraceId() {
+            return mTraceId;
+        }
+
+        @Override
+        public void close() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.endAsyncSection(mSectionName, mCookie);
+            }
+            Trace.endSection();
+            sCurrentId.set(mPreviousId);
+            record(mName, mTraceId, mStart);
+        }
+    }
+
+    private static class Stats {
+        final int[] buckets = new int[BUCKETS_MS.length + 1];
+        final long[] recentNanos = new long[RECENT_SAMPLES];
+        final String[] recentIds = new String[RECENT_SAMPLES];
+        int count = 0;
+        long totalNanos = 0;
+        long maxNanos = 0;
+
+        void add(String traceId, long nanos) {
+            long ms = nanos / 1000000;
+            int i = 0;
+            while (i < BUCKETS_MS.length && ms >= BUCKETS_MS[i]) i++;
+            buckets[i]++;
+
+            recentNanos[count % RECENT_SAMPLES] = nanos;
+            recentIds[count % RECENT_SAMPLES] = traceId;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+    }
+
+    private static final ThreadLocal<String> sCurrentId = new ThreadLocal<>();
+    // Section name -> stats, in order of first appearance
+    // Guarded by itself
+    private static final Map<String, Stats> sStats = new LinkedHashMap<>();
+
+    // Open a section that is part of whatever the thread is currently doing,
+    // or the start of something new if nothing is going on
+    public static Section begin(String name) {
+        return begin(name, null);
+    }
+
+    // Open a section that is part of the given trace, or of
+    // a new one if traceId is null
+    public static Section begin(String name, @Nullable String traceId) {
+        if (traceId == null) traceId = sCurrentId.get();
+        if (traceId == null) traceId = newTraceId();
+        return new Section(name, traceId);
+    }
+
+    public static String newTraceId() {
+        return String.format(Locale.ROOT, "%08x", ThreadLocalRandom.current().nextInt());
+    }
+
+    @Nullable
+    public static String currentTraceId() {
+        return sCurrentId.get();
+    }
+
+    // The ID an intent from the other profile was sent with, if any
+    @Nullable
+    public static String getTraceId(Intent intent) {
+        return intent.getStringExtra(EXTRA_TRACE_ID);
+    }
+
+    // Let the receiver of the intent join the current trace of this thread
+    public static void putTraceId(Intent intent) {
+        String traceId = sCurrentId.get();
+        if (traceId != null && !intent.hasExtra(EXTRA_TRACE_ID)) {
+            intent.putExtra(EXTRA_TRACE_ID, traceId);
+        }
+    }
+
+    public static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    // Record a span that started at the given time (from now()) and ends now
+    public static void record(String name, String traceId, long startNanos) {
+        long nanos = now() - startNanos;
+        synchronized (sStats) {
+            Stats stats = sStats.get(name);
+            if (stats == null) {
+                stats = new Stats();
+                sStats.put(name, stats);
+            }
+            stats.add(traceId, nanos);
+        }
+    }
+
+    // Human-readable histograms of everything recorded in this process
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (sStats) {
+            for (Map.Entry<String, Stats> entry : sStats.entrySet()) {
+                dumpStats(sb, entry.getKey(), entry.getValue());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void dumpStats(StringBuilder sb, String name, Stats stats) {
+        sb.append(name).append('\n');
+        sb.append(String.format(Locale.ROOT, "  n=%d avg=%.1fms max=%.1fms\n",
+                stats.count, stats.totalNanos / 1e6 / stats.count, stats.maxNanos / 1e6));
+
+        int peak = 0;
+        for (int n : stats.buckets) peak = Math.max(peak, n);
+        for (int i = 0; i < stats.buckets.length; i++) {
+            if (stats.buckets[i] == 0) continue;
+            String bound = i < BUCKETS_MS.length ? "<" + BUCKETS_MS[i] : ">=" + BUCKETS_MS[i - 1];
+            int width = Math.max(1, stats.buckets[i] * HISTOGRAM_WIDTH / peak);
+            sb.append(String.format(Locale.ROOT, "  %7sms %s %d\n",
+                    bound, repeat('#', width), stats.buckets[i]));
+        }
+
+        List<String> recent = new ArrayList<>();
+        int first = Math.max(0, stats.count - RECENT_SAMPLES);
+        for (int i = stats.count - 1; i >= first; i--) {
+            recent.add(String.format(Locale.ROOT, "%s:%.1fms",
+                    stats.recentIds[i % RECENT_SAMPLES], stats.recentNanos[i % RECENT_SAMPLES] / 1e6));
+        }
+        sb.append("  recent ").append(Utility.stringJoin(" ", recent.toArray(new String[0]))).append('\n');
+    }
+
+    private static String sectionName(String name) {
+        return name.length() > MAX_SECTION_NAME_LENGTH ? name.substring(0, MAX_SECTION_NAME_LENGTH) : name;
+    }
+
+    // The trace ID as a number, as it is shown in the dump (see newTraceId())
+    private static int cookie(String traceId) {
+        try {
+            return (int) Long.parseLong(traceId, 16);
+        } catch (NumberFormatException e) {
+            // Not one of ours
+            return traceId.hashCode();
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
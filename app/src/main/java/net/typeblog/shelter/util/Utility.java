@@ -12,7 +12,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.content.pm.ShortcutInfo;
 import android.content.pm.ShortcutManager;
 import android.database.Cursor;
@@ -23,7 +22,10 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.Icon;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Environment;
+import android.os.Process;
+import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.MediaStore;
 import android.provider.Settings;
@@ -47,8 +49,9 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 
 public class Utility {
     // Determine if the current app is the owner of the current profile
@@ -85,13 +88,11 @@ public class Utility {
     }
 
     public static void transferIntentToProfileUnsigned(Context context, Intent intent) {
-        PackageManager pm = context.getPackageManager();
-        List<ResolveInfo> info = pm.queryIntentActivities(intent, 0);
-        Optional<ResolveInfo> i = info.stream()
-                .filter((r) -> !r.activityInfo.packageName.equals(context.getPackageName()))
-                .findFirst();
-        if (i.isPresent()) {
-            intent.setComponent(new ComponentName(i.get().activityInfo.packageName, i.get().activityInfo.name));
+        // Lets the other side continue the current trace, if any
+        Tracer.putTraceId(intent);
+        ComponentName component = ProfileIntentResolver.getInstance().resolve(intent);
+        if (component != null) {
+            intent.setComponent(component);
         } else {
             throw new IllegalStateException("Cannot find an intent in other profile");
         }
@@ -118,8 +119,58 @@ public class Utility {
         }
     }
 
+    // Determine if the work profile is known to be running, unlocked and
+    // not in quiet mode (i.e. work mode is on), in which case starting
+    // something in it cannot bring up the "turn on work apps" prompt.
+    // This does not tell which profile is ours, so all profiles of this
+    // user must be up. Returns false whenever unsure.
+    public static boolean isWorkProfileRunning(Context context) {
+        UserManager um = context.getSystemService(UserManager.class);
+        UserHandle self = Process.myUserHandle();
+        boolean found = false;
+        try {
+            for (UserHandle user : um.getUserProfiles()) {
+                if (user.equals(self)) continue;
+                if (um.isQuietModeEnabled(user) || !um.isUserRunning(user) || !um.isUserUnlocked(user)) {
+                    return false;
+                }
+                found = true;
+            }
+        } catch (SecurityException e) {
+            return false;
+        }
+        return found;
+    }
+
+    // Enforce the policies of the work profile, all of them, unless they are known
+    // to be in place already: that is, if nothing they depend on has changed since
+    // they were last enforced (see workProfilePolicyFingerprint()), and the few of
+    // them that are cheap to read back are still as they should be.
+    // This saves DummyActivity a couple dozen binder calls on every start.
+    public static synchronized void reconcileWorkProfilePolicies(Context context, boolean force) {
+        try (Tracer.Section ignored = Tracer.begin("Utility.reconcileWorkProfilePolicies")) {
+            LocalStorageManager storage = LocalStorageManager.getInstance();
+            String fingerprint = workProfilePolicyFingerprint(context);
+            if (!force && fingerprint.equals(storage.getString(LocalStorageManager.PREF_POLICY_FINGERPRINT))
+                    && verifyWorkProfilePolicies(context)) {
+                return;
+            }
+
+            enforceWorkProfilePolicies(context);
+            enforceUserRestrictions(context);
+            SettingsManager.getInstance().applyAll();
+            storage.setString(LocalStorageManager.PREF_POLICY_FINGERPRINT, fingerprint);
+        }
+    }
+
     // Enforce policies and configurations in the work profile
     public static void enforceWorkProfilePolicies(Context context) {
+        try (Tracer.Section ignored = Tracer.begin("Utility.enforceWorkProfilePolicies")) {
+            doEnforceWorkProfilePolicies(context);
+        }
+    }
+
+    private static void doEnforceWorkProfilePolicies(Context context) {
         DevicePolicyManager manager = context.getSystemService(DevicePolicyManager.class);
         ComponentName adminComponent = new ComponentName(context.getApplicationContext(), ShelterDeviceAdminReceiver.class);
 
@@ -130,61 +181,64 @@ public class Utility {
 
         // Clear everything first to ensure our policies are set properly
         manager.clearCrossProfileIntentFilters(adminComponent);
+        for (Map.Entry<IntentFilter, Integer> entry : buildCrossProfileIntentFilters().entrySet()) {
+            manager.addCrossProfileIntentFilter(adminComponent, entry.getKey(), entry.getValue());
+        }
+
+        // Block contacts searching optionally
+        manager.setCrossProfileContactsSearchDisabled(adminComponent,
+                SettingsManager.getInstance().getBlockContactsSearchingEnabled());
+
+        manager.setProfileEnabled(adminComponent);
+    }
+
+    // The cross-profile intent filters of the work profile, with their flags
+    private static Map<IntentFilter, Integer> buildCrossProfileIntentFilters() {
+        Map<IntentFilter, Integer> filters = new LinkedHashMap<>();
 
         // Allow cross-profile intents for START_SERVICE
-        manager.addCrossProfileIntentFilter(
-                adminComponent,
+        filters.put(
                 new IntentFilter(DummyActivity.START_SERVICE),
                 DevicePolicyManager.FLAG_MANAGED_CAN_ACCESS_PARENT);
 
-        manager.addCrossProfileIntentFilter(
-                adminComponent,
+        filters.put(
                 new IntentFilter(DummyActivity.TRY_START_SERVICE),
                 DevicePolicyManager.FLAG_MANAGED_CAN_ACCESS_PARENT);
 
-        manager.addCrossProfileIntentFilter(
-                adminComponent,
+        filters.put(
                 new IntentFilter(DummyActivity.UNFREEZE_AND_LAUNCH),
                 DevicePolicyManager.FLAG_MANAGED_CAN_ACCESS_PARENT);
 
-        manager.addCrossProfileIntentFilter(
-                adminComponent,
+        filters.put(
                 new IntentFilter(DummyActivity.FREEZE_ALL_IN_LIST),
                 DevicePolicyManager.FLAG_MANAGED_CAN_ACCESS_PARENT);
 
-        manager.addCrossProfileIntentFilter(
-                adminComponent,
+        filters.put(
                 new IntentFilter(DummyActivity.PUBLIC_FREEZE_ALL),
                 DevicePolicyManager.FLAG_PARENT_CAN_ACCESS_MANAGED); // Used by FreezeService in profile
 
-        manager.addCrossProfileIntentFilter(
-                adminComponent,
+        filters.put(
                 new IntentFilter(DummyActivity.FINALIZE_PROVISION),
                 DevicePolicyManager.FLAG_PARENT_CAN_ACCESS_MANAGED);
 
-        manager.addCrossProfileIntentFilter(
-                adminComponent,
+        filters.put(
                 new IntentFilter(DummyActivity.START_FILE_SHUTTLE),
                 DevicePolicyManager.FLAG_MANAGED_CAN_ACCESS_PARENT);
 
-        manager.addCrossProfileIntentFilter(
-                adminComponent,
+        filters.put(
                 new IntentFilter(DummyActivity.START_FILE_SHUTTLE_2),
                 DevicePolicyManager.FLAG_PARENT_CAN_ACCESS_MANAGED);
 
-        manager.addCrossProfileIntentFilter(
-                adminComponent,
+        filters.put(
                 new IntentFilter(DummyActivity.SYNCHRONIZE_PREFERENCE),
                 DevicePolicyManager.FLAG_MANAGED_CAN_ACCESS_PARENT);
 
         // Needed by ShelterService and has to be proxied by the MainActivity in main profile
-        manager.addCrossProfileIntentFilter(
-                adminComponent,
+        filters.put(
                 new IntentFilter(DummyActivity.INSTALL_PACKAGE),
                 DevicePolicyManager.FLAG_MANAGED_CAN_ACCESS_PARENT);
 
-        manager.addCrossProfileIntentFilter(
-                adminComponent,
+        filters.put(
                 new IntentFilter(DummyActivity.UNINSTALL_PACKAGE),
                 DevicePolicyManager.FLAG_MANAGED_CAN_ACCESS_PARENT);
 
@@ -198,18 +252,16 @@ public class Utility {
             // WTF?
         }
         actionSendFilter.addCategory(Intent.CATEGORY_DEFAULT);
-        manager.addCrossProfileIntentFilter(
-                adminComponent,
+        filters.put(
                 actionSendFilter,
                 DevicePolicyManager.FLAG_PARENT_CAN_ACCESS_MANAGED);
-        
+
         // Browser intents are allowed from work profile to parent
         IntentFilter browsableIntentFilter = new IntentFilter(Intent.ACTION_VIEW);
         browsableIntentFilter.addCategory(Intent.CATEGORY_BROWSABLE);
         browsableIntentFilter.addDataScheme("http");
         browsableIntentFilter.addDataScheme("https");
-        manager.addCrossProfileIntentFilter(
-                adminComponent,
+        filters.put(
                 browsableIntentFilter,
                 DevicePolicyManager.FLAG_PARENT_CAN_ACCESS_MANAGED);
         IntentFilter browsableDefaultIntentFilter = new IntentFilter(Intent.ACTION_VIEW);
@@ -217,16 +269,68 @@ public class Utility {
         browsableDefaultIntentFilter.addCategory(Intent.CATEGORY_DEFAULT);
         browsableDefaultIntentFilter.addDataScheme("http");
         browsableDefaultIntentFilter.addDataScheme("https");
-        manager.addCrossProfileIntentFilter(
-                adminComponent,
+        filters.put(
                 browsableDefaultIntentFilter,
                 DevicePolicyManager.FLAG_PARENT_CAN_ACCESS_MANAGED);
 
-        // Block contacts searching optionally
-        manager.setCrossProfileContactsSearchDisabled(adminComponent,
-                SettingsManager.getInstance().getBlockContactsSearchingEnabled());
+        return filters;
+    }
 
-        manager.setProfileEnabled(adminComponent);
+    // Everything the policies of the work profile depend on: the version of this app
+    // (which is where all the policies come from), of the system, the settings
+    // that are applied along with the policies, and the intent filters.
+    // There is no way to read back the intent filters, so this is how we know
+    // that they are still what they should be.
+    private static String workProfilePolicyFingerprint(Context context) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            // This changes with every update of the app
+            sb.append(context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime);
+        } catch (PackageManager.NameNotFoundException e) {
+            // WTF?
+        }
+        sb.append('|').append(Build.VERSION.SDK_INT).append('|').append(Build.FINGERPRINT);
+
+        SettingsManager settings = SettingsManager.getInstance();
+        sb.append('|').append(settings.getBlockContactsSearchingEnabled())
+                .append(settings.getCrossProfileFileChooserEnabled())
+                .append(settings.getPaymentStubEnabled());
+
+        for (Map.Entry<IntentFilter, Integer> entry : buildCrossProfileIntentFilters().entrySet()) {
+            IntentFilter filter = entry.getKey();
+            sb.append('|').append(entry.getValue());
+            for (int i = 0; i < filter.countActions(); i++) sb.append(",a:").append(filter.getAction(i));
+            for (int i = 0; i < filter.countCategories(); i++) sb.append(",c:").append(filter.getCategory(i));
+            for (int i = 0; i < filter.countDataSchemes(); i++) sb.append(",s:").append(filter.getDataScheme(i));
+            for (int i = 0; i < filter.countDataTypes(); i++) sb.append(",t:").append(filter.getDataType(i));
+        }
+        return Integer.toHexString(sb.toString().hashCode());
+    }
+
+    // Read back what can be read back cheaply (one call each), in case
+    // it has been changed by something other than us in the meantime
+    private static boolean verifyWorkProfilePolicies(Context context) {
+        DevicePolicyManager manager = context.getSystemService(DevicePolicyManager.class);
+        ComponentName adminComponent = new ComponentName(context.getApplicationContext(), ShelterDeviceAdminReceiver.class);
+        PackageManager pm = context.getPackageManager();
+        SettingsManager settings = SettingsManager.getInstance();
+
+        if (pm.getComponentEnabledSetting(new ComponentName(context.getApplicationContext(), MainActivity.class))
+                != PackageManager.COMPONENT_ENABLED_STATE_DISABLED) {
+            return false;
+        }
+
+        if (manager.getCrossProfileContactsSearchDisabled(adminComponent)
+                != settings.getBlockContactsSearchingEnabled()) {
+            return false;
+        }
+
+        Bundle restrictions = context.getSystemService(UserManager.class).getUserRestrictions();
+        return !restrictions.getBoolean(UserManager.DISALLOW_INSTALL_APPS)
+                && !restrictions.getBoolean(UserManager.DISALLOW_INSTALL_UNKNOWN_SOURCES)
+                && !restrictions.getBoolean(UserManager.DISALLOW_UNINSTALL_APPS)
+                && restrictions.getBoolean(UserManager.ALLOW_PARENT_PROFILE_APP_LINKING);
     }
 
     public static void enforceUserRestrictions(Context context) {
@@ -400,12 +504,7 @@ public class Utility {
 
     // Get file's extension name
     public static String getFileExtension(String filePath) {
-        int index = filePath.lastIndexOf(".");
-        if (index > 0) {
-            return filePath.substring(index + 1);
-        } else {
-            return null;
-        }
+        return FileShuttleFiles.getExtension(filePath);
     }
 
     // Check if USAGE_STATS is granted
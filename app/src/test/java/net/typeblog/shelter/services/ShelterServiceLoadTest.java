@@ -0,0 +1,403 @@
+package net.typeblog.shelter.services;
+
+import android.app.Activity;
+import android.app.Application;
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Looper;
+
+import net.typeblog.shelter.receivers.ShelterDeviceAdminReceiver;
+import net.typeblog.shelter.ui.DummyActivity;
+import net.typeblog.shelter.util.ApplicationInfoWrapper;
+import net.typeblog.shelter.util.PackageStateIndex;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowDevicePolicyManager;
+import org.robolectric.shadows.ShadowPackageManager;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+// Drives ShelterService and FreezeService with a large number of synthetic
+// packages and several concurrent clients, and reports the latency
+// percentiles and allocated bytes of each flow. This runs on the JVM
+// through Robolectric, so no device or emulator is needed; the PackageManager
+// is made slow where it matters by SlowPackageManagerShadow.
+//
+// Skipped by default as it takes a while; run with
+//     ./gradlew testDebugUnitTest -PloadTest --tests '*ShelterServiceLoadTest'
+// The report is printed and also written to build/reports/load-test/.
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.TIRAMISU, shadows = SlowPackageManagerShadow.class)
+public class ShelterServiceLoadTest {
+    private static final int PACKAGES = Integer.getInteger("shelter.loadTest.packages", 5000);
+    private static final int CLIENTS = Integer.getInteger("shelter.loadTest.clients", 8);
+    // Every n-th package is a system app, which is not shown
+    private static final int SYSTEM_EVERY = 5;
+    private static final int ICONS = 1000;
+    private static final int ICON_SIZE_PX = 96;
+    private static final int GET_APPS_ROUNDS = 3;
+    private static final long TIMEOUT_SECONDS = 300;
+
+    // Latencies of one kind of operation, and what was allocated meanwhile
+    private static class LoadStats {
+        private final String mName;
+        private final List<Long> mNanos = Collections.synchronizedList(new ArrayList<>());
+        private long mAllocatedBefore;
+        private long mAllocated = 0;
+
+        LoadStats(String name) {
+            mName = name;
+            mAllocatedBefore = allocatedBytes();
+        }
+
+        void add(long startNanos) {
+            mNanos.add(System.nanoTime() - startNanos);
+        }
+
+        void stop() {
+            mAllocated = allocatedBytes() - mAllocatedBefore;
+        }
+
+        int count() {
+            return mNanos.size();
+        }
+
+        String report() {
+            List<Long> sorted = new ArrayList<>(mNanos);
+            Collections.sort(sorted);
+            int n = sorted.size();
+            return String.format(Locale.ROOT,
+                    "%-24s n=%-6d p50=%8.2fms p90=%8.2fms p99=%8.2fms max=%8.2fms alloc=%8.1fMB (%.1fKB/op)",
+                    mName, n, percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                    n == 0 ? 0 : sorted.get(n - 1) / 1e6,
+                    mAllocated / 1e6, n == 0 ? 0 : mAllocated / 1e3 / n);
+        }
+
+        private static double percentile(List<Long> sorted, int p) {
+            if (sorted.isEmpty()) return 0;
+            int index = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+            return sorted.get(Math.max(0, index)) / 1e6;
+        }
+
+        // Bytes allocated so far by all live threads. Threads that have
+        // exited in between are not counted, which is why all the work
+        // here runs on pools that outlive the measurement.
+        private static long allocatedBytes() {
+            com.sun.management.ThreadMXBean bean =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long sum = 0;
+            for (long bytes : bean.getThreadAllocatedBytes(bean.getAllThreadIds())) {
+                if (bytes > 0) sum += bytes;
+            }
+            return sum;
+        }
+    }
+
+    private Application mContext;
+    private ShadowDevicePolicyManager mPolicyManager;
+    private ComponentName mAdmin;
+    private IShelterService mService;
+    private ExecutorService mClients;
+    private final List<String> mPackages = new ArrayList<>();
+    private int mVisiblePackages = 0;
+    private final List<String> mReport = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Load tests are only run with -PloadTest", Boolean.getBoolean("shelter.loadTest"));
+
+        mContext = RuntimeEnvironment.getApplication();
+        mAdmin = new ComponentName(mContext, ShelterDeviceAdminReceiver.class);
+        mPolicyManager = shadowOf(mContext.getSystemService(DevicePolicyManager.class));
+        // We are the work profile side
+        mPolicyManager.setProfileOwner(mAdmin);
+        mPolicyManager.setActiveAdmin(mAdmin);
+
+        ShadowPackageManager pm = shadowOf(mContext.getPackageManager());
+        for (int i = 0; i < PACKAGES; i++) {
+            PackageInfo info = new PackageInfo();
+            info.packageName = String.format(Locale.ROOT, "com.example.app%05d", i);
+            info.lastUpdateTime = i;
+            info.applicationInfo = new ApplicationInfo();
+            info.applicationInfo.packageName = info.packageName;
+            info.applicationInfo.enabled = true;
+            info.applicationInfo.flags = ApplicationInfo.FLAG_INSTALLED;
+            if (i % SYSTEM_EVERY == 0) {
+                info.applicationInfo.flags |= ApplicationInfo.FLAG_SYSTEM;
+            } else {
+                mVisiblePackages++;
+            }
+            pm.installPackage(info);
+            mPackages.add(info.packageName);
+        }
+
+        ShelterService service = Robolectric.buildService(ShelterService.class).create().get();
+        mService = IShelterService.Stub.asInterface(service.onBind(new Intent()));
+        mClients = Executors.newFixedThreadPool(CLIENTS + 1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (mClients != null) {
+            mClients.shutdownNow();
+        }
+        if (mReport.isEmpty()) return;
+
+        File dir = new File("build/reports/load-test");
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+        try (FileWriter writer = new FileWriter(new File(dir, getClass().getSimpleName() + ".txt"), true)) {
+            writer.write(String.format(Locale.ROOT, "# packages=%d clients=%d label=%dms icon=%dms\n",
+                    PACKAGES, CLIENTS, SlowPackageManagerShadow.sLabelDelayMs, SlowPackageManagerShadow.sIconDelayMs));
+            for (String line : mReport) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+    }
+
+    @Test
+    public void getAppsWithConcurrentClients() throws Exception {
+        LoadStats stats = new LoadStats("getApps");
+        runClients(GET_APPS_ROUNDS, (client, round) -> {
+            long start = System.nanoTime();
+            List<ApplicationInfoWrapper> apps = getApps();
+            stats.add(start);
+            assertEquals(mVisiblePackages, apps.size());
+        });
+        stats.stop();
+        report(stats);
+    }
+
+    @Test
+    public void loadIconWithConcurrentClients() throws Exception {
+        List<ApplicationInfoWrapper> apps = getApps();
+        int perClient = ICONS / CLIENTS;
+
+        LoadStats stats = new LoadStats("loadIcon");
+        runClients(perClient, (client, round) -> {
+            ApplicationInfoWrapper app = apps.get((client * perClient + round) % apps.size());
+            long start = System.nanoTime();
+            AtomicReference<Bitmap> icon = new AtomicReference<>();
+            CountDownLatch latch = new CountDownLatch(1);
+            mService.loadIcon(app, ICON_SIZE_PX, new ILoadIconCallback.Stub() {
+                @Override
+                public void callback(Bitmap bmp) {
+                    icon.set(bmp);
+                    latch.countDown();
+                }
+            });
+            await(latch);
+            stats.add(start);
+            assertNotNull(icon.get());
+        });
+        stats.stop();
+        report(stats);
+    }
+
+    @Test
+    public void freezeAllWithHiddenStateChurn() throws Exception {
+        List<ApplicationInfoWrapper> apps = getApps();
+        AtomicBoolean running = new AtomicBoolean(true);
+        Future<?> churn = mClients.submit(() -> churnHiddenState(running));
+
+        // Somebody keeps looking at the list while everything gets frozen
+        LoadStats listStats = new LoadStats("getApps (freezing)");
+        Future<?> reader = mClients.submit(() -> {
+            while (running.get()) {
+                long start = System.nanoTime();
+                getApps();
+                listStats.add(start);
+            }
+            return null;
+        });
+
+        LoadStats stats = new LoadStats("freezeAll item");
+        long[] last = new long[]{System.nanoTime()};
+        List<Integer> results = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        mService.runBatch(ShelterService.BATCH_FREEZE, apps, new IBatchCallback.Stub() {
+            @Override
+            public void progress(int done, int total, String packageName, int result) {
+                stats.add(last[0]);
+                last[0] = System.nanoTime();
+            }
+
+            @Override
+            public void finished(List<String> packages, int[] res) {
+                for (int r : res) results.add(r);
+                latch.countDown();
+            }
+        });
+        await(latch);
+        stats.stop();
+        running.set(false);
+        churn.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        reader.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        listStats.stop();
+
+        assertEquals(apps.size(), results.size());
+        for (int r : results) {
+            assertEquals(Activity.RESULT_OK, r);
+        }
+        report(stats);
+        report(listStats);
+    }
+
+    @Test
+    public void autoFreezeWithConcurrentClients() throws Exception {
+        // The "freeze now" action of the notification goes to the main profile,
+        // through the forwarder of the system
+        ResolveInfo forwarder = new ResolveInfo();
+        forwarder.activityInfo = new ActivityInfo();
+        forwarder.activityInfo.packageName = "android";
+        forwarder.activityInfo.name = "com.android.internal.app.IntentForwarderActivity";
+        shadowOf(mContext.getPackageManager())
+                .addResolveInfoForIntent(new Intent(DummyActivity.PUBLIC_FREEZE_ALL), forwarder);
+        ServiceController<FreezeService> controller = Robolectric.buildService(FreezeService.class).create();
+
+        // Apps get launched through "Unfreeze and Launch" from several places at once
+        List<String> toFreeze = new ArrayList<>();
+        for (int i = 1; i < mPackages.size(); i += 2) {
+            toFreeze.add(mPackages.get(i));
+        }
+        int perClient = (toFreeze.size() + CLIENTS - 1) / CLIENTS;
+        LoadStats registerStats = new LoadStats("registerAppToFreeze");
+        runClients(perClient, (client, round) -> {
+            int index = client * perClient + round;
+            if (index >= toFreeze.size()) return;
+            long start = System.nanoTime();
+            PackageStateIndex.getInstance().setHidden(toFreeze.get(index), false);
+            FreezeService.registerAppToFreeze(toFreeze.get(index));
+            registerStats.add(start);
+        });
+        registerStats.stop();
+
+        // Lock the screen, then let the delay pass
+        mContext.sendBroadcast(new Intent(Intent.ACTION_SCREEN_OFF));
+        shadowOf(Looper.getMainLooper()).idle();
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        LoadStats listStats = new LoadStats("getApps (auto-freeze)");
+        Future<?> reader = mClients.submit(() -> {
+            while (running.get()) {
+                long start = System.nanoTime();
+                getApps();
+                listStats.add(start);
+            }
+            return null;
+        });
+
+        LoadStats freezeStats = new LoadStats("auto-freeze");
+        long start = System.nanoTime();
+        controller.get().freezePendingApps();
+        freezeStats.add(start);
+        freezeStats.stop();
+        running.set(false);
+        reader.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        listStats.stop();
+
+        assertFalse(FreezeService.hasPendingAppToFreeze());
+        DevicePolicyManager dpm = mContext.getSystemService(DevicePolicyManager.class);
+        for (String pkg : toFreeze) {
+            assertTrue(pkg, dpm.isApplicationHidden(mAdmin, pkg));
+        }
+        report(registerStats);
+        report(freezeStats);
+        report(listStats);
+    }
+
+    private interface ClientWork {
+        void run(int client, int round) throws Exception;
+    }
+
+    // Run the work `rounds` times on each of the clients at once
+    private void runClients(int rounds, ClientWork work) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            int client = i;
+            futures.add(mClients.submit(() -> {
+                start.await();
+                for (int round = 0; round < rounds; round++) {
+                    work.run(client, round);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) {
+            f.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    // Freeze and unfreeze random packages, as the user and auto-freeze would
+    private Void churnHiddenState(AtomicBoolean running) {
+        PackageStateIndex packageStates = PackageStateIndex.getInstance();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running.get()) {
+            packageStates.setHidden(mPackages.get(random.nextInt(mPackages.size())), random.nextBoolean());
+        }
+        return null;
+    }
+
+    private List<ApplicationInfoWrapper> getApps() throws Exception {
+        AtomicReference<List<ApplicationInfoWrapper>> ret = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        mService.getApps(new IGetAppsCallback.Stub() {
+            @Override
+            public void callback(List<ApplicationInfoWrapper> apps) {
+                ret.set(apps);
+                latch.countDown();
+            }
+        }, false);
+        await(latch);
+        return ret.get();
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        assertTrue("Timed out", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private void report(LoadStats stats) {
+        String line = stats.report();
+        System.out.println(line);
+        mReport.add(line);
+    }
+}
@@ -0,0 +1,43 @@
+package net.typeblog.shelter.services;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageItemInfo;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowApplicationPackageManager;
+
+// The PackageManager of Robolectric, but with labels and icons that take
+// a while to load, like they do on a device where they come from the
+// resources of every single APK.
+@Implements(className = "android.app.ApplicationPackageManager", isInAndroidSdk = false)
+public class SlowPackageManagerShadow extends ShadowApplicationPackageManager {
+    static volatile long sLabelDelayMs = 1;
+    static volatile long sIconDelayMs = 3;
+
+    @Implementation
+    @Override
+    protected CharSequence getApplicationLabel(ApplicationInfo info) {
+        sleep(sLabelDelayMs);
+        // Not in the order of the package names, so that sorting has some work to do
+        return "App " + new StringBuilder(info.packageName).reverse();
+    }
+
+    @Implementation
+    protected Drawable loadUnbadgedItemIcon(PackageItemInfo itemInfo, ApplicationInfo appInfo) {
+        sleep(sIconDelayMs);
+        return new ColorDrawable(Color.rgb(itemInfo.packageName.hashCode() & 0xff, 0x80, 0x40));
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
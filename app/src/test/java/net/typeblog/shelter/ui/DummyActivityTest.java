@@ -0,0 +1,83 @@
+package net.typeblog.shelter.ui;
+
+import android.app.Application;
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.os.Build;
+
+import net.typeblog.shelter.receivers.ShelterDeviceAdminReceiver;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowDevicePolicyManager;
+import org.robolectric.shadows.ShadowPackageManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+// DummyActivity as the profile owner, i.e. on the work profile side
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.P)
+public class DummyActivityTest {
+    private static final String PACKAGE = "com.example.app";
+
+    private Application mContext;
+    private DevicePolicyManager mPolicyManager;
+    private ComponentName mAdmin;
+    private ComponentName mLaunchActivity;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.getApplication();
+        mAdmin = new ComponentName(mContext, ShelterDeviceAdminReceiver.class);
+        mPolicyManager = mContext.getSystemService(DevicePolicyManager.class);
+        ShadowDevicePolicyManager shadowPolicyManager = shadowOf(mPolicyManager);
+        shadowPolicyManager.setProfileOwner(mAdmin);
+        shadowPolicyManager.setActiveAdmin(mAdmin);
+
+        PackageInfo info = new PackageInfo();
+        info.packageName = PACKAGE;
+        info.applicationInfo = new ApplicationInfo();
+        info.applicationInfo.packageName = PACKAGE;
+        info.applicationInfo.enabled = true;
+        info.applicationInfo.flags = ApplicationInfo.FLAG_INSTALLED;
+        ShadowPackageManager pm = shadowOf(mContext.getPackageManager());
+        pm.installPackage(info);
+
+        mLaunchActivity = new ComponentName(PACKAGE, PACKAGE + ".MainActivity");
+        pm.addActivityIfNotPresent(mLaunchActivity);
+        IntentFilter filter = new IntentFilter(Intent.ACTION_MAIN);
+        filter.addCategory(Intent.CATEGORY_LAUNCHER);
+        pm.addIntentFilterForActivity(mLaunchActivity, filter);
+
+        mPolicyManager.setApplicationHidden(mAdmin, PACKAGE, true);
+    }
+
+    // What the unfreeze shortcuts send; allowed without a signature
+    @Test
+    public void publicUnfreezeAndLaunch() {
+        Intent intent = new Intent(DummyActivity.PUBLIC_UNFREEZE_AND_LAUNCH);
+        intent.setComponent(new ComponentName(mContext, DummyActivity.class));
+        intent.putExtra("packageName", PACKAGE);
+
+        DummyActivity activity = Robolectric.buildActivity(DummyActivity.class, intent).setup().get();
+
+        assertFalse(mPolicyManager.isApplicationHidden(mAdmin, PACKAGE));
+        Intent started = shadowOf(activity).getNextStartedActivity();
+        assertNotNull(started);
+        assertEquals(PACKAGE, started.getComponent().getPackageName());
+        assertTrue(activity.isFinishing());
+    }
+}
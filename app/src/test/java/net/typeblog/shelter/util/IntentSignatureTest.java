@@ -0,0 +1,44 @@
+package net.typeblog.shelter.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IntentSignatureTest {
+    private static final long TIMESTAMP = 1700000000000L;
+
+    @Test
+    public void verify_signedTimestamp() {
+        String key = IntentSignature.generateKey();
+        String signature = IntentSignature.sign(key, TIMESTAMP);
+        assertTrue(IntentSignature.verify(key, TIMESTAMP, TIMESTAMP, signature));
+        assertTrue(IntentSignature.verify(key, TIMESTAMP + IntentSignature.MAX_AGE_MS - 1, TIMESTAMP, signature));
+    }
+
+    @Test
+    public void sign_isDeterministic() {
+        String key = IntentSignature.generateKey();
+        assertEquals(IntentSignature.sign(key, TIMESTAMP), IntentSignature.sign(key, TIMESTAMP));
+    }
+
+    @Test
+    public void verify_expired() {
+        String key = IntentSignature.generateKey();
+        String signature = IntentSignature.sign(key, TIMESTAMP);
+        assertFalse(IntentSignature.verify(key, TIMESTAMP + IntentSignature.MAX_AGE_MS, TIMESTAMP, signature));
+        assertFalse(IntentSignature.verify(key, TIMESTAMP + 60 * 60 * 1000, TIMESTAMP, signature));
+    }
+
+    @Test
+    public void verify_otherTimestamp() {
+        String key = IntentSignature.generateKey();
+        String signature = IntentSignature.sign(key, TIMESTAMP);
+        assertFalse(IntentSignature.verify(key, TIMESTAMP + 1, TIMESTAMP + 1, signature));
+    }
+
+    @Test
+    public void verify_otherKey() {
+        String signature = IntentSignature.sign(IntentSignature.generateKey(), TIMESTAMP);
+        assertFalse(IntentSignature.verify(IntentSignature.generateKey(), TIMESTAMP, TIMESTAMP, signature));
+    }
+}
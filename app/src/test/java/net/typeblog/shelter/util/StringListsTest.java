@@ -0,0 +1,65 @@
+package net.typeblog.shelter.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StringListsTest {
+    private static final String LIST = "com.example.app,com.example,org.example.app";
+
+    @Test
+    public void contains_firstAndLastItem() {
+        assertTrue(StringLists.contains(LIST, "com.example.app"));
+        assertTrue(StringLists.contains(LIST, "org.example.app"));
+    }
+
+    @Test
+    public void contains_middleItem() {
+        assertTrue(StringLists.contains(LIST, "com.example"));
+    }
+
+    @Test
+    public void contains_prefixOfItem() {
+        assertFalse(StringLists.contains("com.example.app", "com.example"));
+        assertFalse(StringLists.contains(LIST, "org.example"));
+    }
+
+    @Test
+    public void contains_suffixOfItem() {
+        assertFalse(StringLists.contains("com.example.app", "example.app"));
+        assertFalse(StringLists.contains(LIST, "app"));
+    }
+
+    @Test
+    public void contains_itemAfterPartialMatch() {
+        assertTrue(StringLists.contains("com.example.app2,com.example.app", "com.example.app"));
+    }
+
+    @Test
+    public void contains_emptyString() {
+        // An empty stored string is a list with one empty item
+        assertTrue(StringLists.contains("", ""));
+        assertFalse(StringLists.contains("", "com.example"));
+        assertFalse(StringLists.contains(LIST, ""));
+    }
+
+    @Test
+    public void contains_emptyItem() {
+        assertTrue(StringLists.contains("com.example,,org.example", ""));
+        assertTrue(StringLists.contains(",com.example", ""));
+        // Trailing empty items are dropped, like split() does
+        assertFalse(StringLists.contains("com.example,", ""));
+    }
+
+    @Test
+    public void remove_onlyExactItem() {
+        assertEquals("com.example.app,org.example.app", StringLists.remove(LIST, "com.example"));
+        assertSame(LIST, StringLists.remove(LIST, "example"));
+    }
+
+    @Test
+    public void append_toNewList() {
+        assertEquals("com.example", StringLists.append(null, "com.example"));
+        assertEquals("com.example,org.example", StringLists.append("com.example", "org.example"));
+    }
+}
@@ -0,0 +1,73 @@
+package net.typeblog.shelter.benchmark;
+
+import net.typeblog.shelter.util.AppListPipeline;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// The filter / label / sort pipeline of ShelterService.getApps(),
+// with every label already in the label cache (the common case)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppListPipelineBenchmark {
+    @Param({"500", "5000"})
+    public int packages;
+
+    private List<FakeApps.Package> mPackages;
+    private final Map<String, String> mLabels = new HashMap<>();
+
+    @Setup
+    public void setUp() {
+        mPackages = FakeApps.packages(packages, 42);
+        for (FakeApps.Package pkg : mPackages) {
+            mLabels.put(pkg.packageName, FakeApps.label(pkg.packageName));
+        }
+    }
+
+    // Mirrors ShelterService.shouldShow()
+    private static boolean shouldShow(FakeApps.Package pkg, boolean showAll) {
+        return showAll || (!pkg.system && pkg.installed) || pkg.hidden || pkg.launchable;
+    }
+
+    private void loadLabels(List<FakeApps.App> apps) {
+        for (FakeApps.App app : apps) {
+            app.label = mLabels.get(app.packageName);
+        }
+    }
+
+    @Benchmark
+    public List<FakeApps.App> build() {
+        return AppListPipeline.build(mPackages, (pkg) -> shouldShow(pkg, false),
+                FakeApps.App::new, this::loadLabels);
+    }
+
+    @Benchmark
+    public List<FakeApps.App> buildShowAll() {
+        return AppListPipeline.build(mPackages, (pkg) -> shouldShow(pkg, true),
+                FakeApps.App::new, this::loadLabels);
+    }
+
+    // Used by getAppsPaged(), which labels and sorts page by page
+    @Benchmark
+    public List<FakeApps.App> filterOnly() {
+        return AppListPipeline.filter(mPackages, (pkg) -> shouldShow(pkg, false), FakeApps.App::new);
+    }
+}
@@ -0,0 +1,95 @@
+package net.typeblog.shelter.benchmark;
+
+import net.typeblog.shelter.util.AppListPipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Synthetic packages looking roughly like those on a real device:
+// mostly system packages, a few hundred user apps, some of them frozen
+final class FakeApps {
+    private static final String[] WORDS = new String[]{
+            "Calendar", "Camera", "Clock", "Contacts", "Files", "Gallery", "Maps",
+            "Messages", "Music", "Notes", "Phone", "Photos", "Settings", "Weather",
+            "\u00c9cran", "\u00dcber", "Banking", "Chat", "Mail", "Browser", "Reader", "Player"
+    };
+
+    // What PackageManager tells about a package
+    static final class Package {
+        final String packageName;
+        final boolean system;
+        final boolean installed;
+        final boolean launchable;
+        final boolean hidden;
+
+        Package(String packageName, boolean system, boolean installed, boolean launchable, boolean hidden) {
+            this.packageName = packageName;
+            this.system = system;
+            this.installed = installed;
+            this.launchable = launchable;
+            this.hidden = hidden;
+        }
+    }
+
+    // An entry of the app list
+    static final class App implements AppListPipeline.Item {
+        final String packageName;
+        final boolean hidden;
+        String label = null;
+
+        App(Package pkg) {
+            this.packageName = pkg.packageName;
+            this.hidden = pkg.hidden;
+        }
+
+        @Override
+        public String getPackageName() {
+            return packageName;
+        }
+
+        @Override
+        public String getLabel() {
+            return label;
+        }
+
+        @Override
+        public boolean isHidden() {
+            return hidden;
+        }
+    }
+
+    static List<Package> packages(int count, long seed) {
+        Random random = new Random(seed);
+        List<Package> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            boolean system = random.nextInt(100) < 70;
+            String vendor = system ? "com.android." : "com.example" + random.nextInt(50) + ".";
+            ret.add(new Package(vendor + word(random).toLowerCase() + i,
+                    system, random.nextInt(100) < 95, random.nextInt(100) < 30, random.nextInt(100) < 10));
+        }
+        return ret;
+    }
+
+    static String label(String packageName) {
+        Random random = new Random(packageName.hashCode());
+        return word(random) + " " + word(random);
+    }
+
+    static List<App> apps(int count, long seed) {
+        List<App> ret = new ArrayList<>(count);
+        for (Package pkg : packages(count, seed)) {
+            App app = new App(pkg);
+            app.label = label(pkg.packageName);
+            ret.add(app);
+        }
+        return ret;
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private FakeApps() {
+    }
+}
@@ -0,0 +1,100 @@
+package net.typeblog.shelter.benchmark;
+
+import net.typeblog.shelter.util.FileShuttleFiles;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// What FileShuttleService does for a directory listing in the Documents UI:
+// resolve the path, then build the metadata of every file in it
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileShuttleFilesBenchmark {
+    private static final String DUMMY_ROOT = "/shelter_storage_root/";
+    private static final int FILES = 200;
+    private static final String[] EXTENSIONS = new String[]{"jpg", "mp4", "pdf", "txt", "apk", "unknown"};
+    // The same as in android.provider.DocumentsContract.Document
+    private static final FileShuttleFiles.DocumentContract DOCUMENT_CONTRACT =
+            new FileShuttleFiles.DocumentContract("document_id", "_display_name", "_size",
+                    "last_modified", "mime_type", "flags", "vnd.android.document/directory",
+                    1, 1 << 2, 1 << 3);
+
+    private final Map<String, String> mMimeTypes = new HashMap<>();
+    private File mDir;
+    private String mDummyPath;
+
+    @Setup
+    public void setUp() throws IOException {
+        mMimeTypes.put("jpg", "image/jpeg");
+        mMimeTypes.put("mp4", "video/mp4");
+        mMimeTypes.put("pdf", "application/pdf");
+        mMimeTypes.put("txt", "text/plain");
+        mMimeTypes.put("apk", "application/vnd.android.package-archive");
+
+        mDir = File.createTempFile("shelter-benchmark", "");
+        if (!mDir.delete() || !mDir.mkdir()) {
+            throw new IOException("Cannot create " + mDir);
+        }
+        for (int i = 0; i < FILES; i++) {
+            File f = new File(mDir, "file" + i + "." + EXTENSIONS[i % EXTENSIONS.length]);
+            if (!f.createNewFile()) {
+                throw new IOException("Cannot create " + f);
+            }
+        }
+        if (!new File(mDir, "subdir").mkdir()) {
+            throw new IOException("Cannot create subdir");
+        }
+        mDummyPath = DUMMY_ROOT + "subdir";
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] children = mDir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                child.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Benchmark
+    public String resolvePath() {
+        return FileShuttleFiles.resolvePath(mDummyPath, DUMMY_ROOT, mDir.getPath() + "/");
+    }
+
+    @Benchmark
+    public List<Map<String, Serializable>> loadFiles() {
+        List<Map<String, Serializable>> ret = new ArrayList<>();
+        File[] children = new File(FileShuttleFiles.resolvePath(
+                mDir.getPath(), DUMMY_ROOT, mDir.getPath())).listFiles();
+        if (children != null) {
+            for (File child : children) {
+                ret.add(FileShuttleFiles.buildMeta(child, child.getName(), mMimeTypes::get, DOCUMENT_CONTRACT));
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,53 @@
+package net.typeblog.shelter.benchmark;
+
+import net.typeblog.shelter.util.IntentSignature;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Signing and checking of every intent sent across the profile boundary
+// (AuthenticationUtility.signIntent() / checkIntent())
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntentSignatureBenchmark {
+    private String mKey;
+    private long mTimestamp;
+    private String mSignature;
+
+    @Setup
+    public void setUp() {
+        mKey = IntentSignature.generateKey();
+        mTimestamp = System.currentTimeMillis();
+        mSignature = IntentSignature.sign(mKey, mTimestamp);
+    }
+
+    @Benchmark
+    public String sign() {
+        return IntentSignature.sign(mKey, mTimestamp);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return IntentSignature.verify(mKey, mTimestamp + 100, mTimestamp, mSignature);
+    }
+
+    // Refused before computing anything
+    @Benchmark
+    public boolean verifyExpired() {
+        return IntentSignature.verify(mKey, mTimestamp + IntentSignature.MAX_AGE_MS, mTimestamp, mSignature);
+    }
+}
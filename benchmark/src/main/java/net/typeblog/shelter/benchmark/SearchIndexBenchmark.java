@@ -0,0 +1,71 @@
+package net.typeblog.shelter.benchmark;
+
+import net.typeblog.shelter.util.SearchIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Search filtering of AppListAdapter and UnifiedSearch
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchIndexBenchmark {
+    private static final SearchIndex.Fields<FakeApps.App> FIELDS = new SearchIndex.Fields<FakeApps.App>() {
+        @Override
+        public String getKey(FakeApps.App item) {
+            return item.getPackageName();
+        }
+
+        @Override
+        public String getLabel(FakeApps.App item) {
+            return item.getLabel();
+        }
+    };
+
+    @Param({"500", "5000"})
+    public int apps;
+
+    // From a single letter (most results) to something matching nothing
+    @Param({"c", "cam", "ecran", "example12.", "zzz"})
+    public String query;
+
+    private List<FakeApps.App> mApps;
+    private SearchIndex<FakeApps.App> mIndex;
+
+    @Setup
+    public void setUp() {
+        mApps = FakeApps.apps(apps, 42);
+        mIndex = SearchIndex.build(mApps, FIELDS, null);
+    }
+
+    @Benchmark
+    public List<FakeApps.App> search() {
+        return mIndex.search(query);
+    }
+
+    @Benchmark
+    public SearchIndex<FakeApps.App> build() {
+        return SearchIndex.build(mApps, FIELDS, null);
+    }
+
+    // After a refresh, where almost every entry can be reused
+    @Benchmark
+    public SearchIndex<FakeApps.App> rebuild() {
+        return SearchIndex.build(mApps, FIELDS, mIndex);
+    }
+}
@@ -0,0 +1,85 @@
+package net.typeblog.shelter.benchmark;
+
+import net.typeblog.shelter.util.StringLists;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The string lists of LocalStorageManager, e.g. the auto freeze list,
+// which is checked and updated on every unfreeze and every refresh
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringListsBenchmark {
+    @Param({"10", "200"})
+    public int items;
+
+    private String mStored;
+    private String mFirst;
+    private String mLast;
+    private String mMissing;
+
+    @Setup
+    public void setUp() {
+        List<FakeApps.Package> packages = FakeApps.packages(items, 7);
+        String[] names = new String[items];
+        for (int i = 0; i < items; i++) {
+            names[i] = packages.get(i).packageName;
+        }
+        mStored = StringLists.join(names);
+        mFirst = names[0];
+        mLast = names[items - 1];
+        // A prefix of a package in the list, the worst case for matching
+        mMissing = mLast.substring(0, mLast.length() - 1);
+    }
+
+    @Benchmark
+    public boolean containsFirst() {
+        return StringLists.contains(mStored, mFirst);
+    }
+
+    @Benchmark
+    public boolean containsLast() {
+        return StringLists.contains(mStored, mLast);
+    }
+
+    @Benchmark
+    public boolean containsMissing() {
+        return StringLists.contains(mStored, mMissing);
+    }
+
+    @Benchmark
+    public String[] split() {
+        return StringLists.split(mStored);
+    }
+
+    @Benchmark
+    public String append() {
+        return StringLists.append(mStored, mMissing);
+    }
+
+    @Benchmark
+    public String remove() {
+        return StringLists.remove(mStored, mLast);
+    }
+
+    @Benchmark
+    public String removeMissing() {
+        return StringLists.remove(mStored, mMissing);
+    }
+}